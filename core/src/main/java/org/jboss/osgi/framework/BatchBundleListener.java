@@ -0,0 +1,48 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework;
+
+import org.osgi.framework.BundleEvent;
+import org.osgi.framework.BundleListener;
+
+import java.util.List;
+
+/**
+ * An asynchronous {@link BundleListener} that receives the events of a bulk lifecycle operation as one batch.
+ *
+ * The framework collects the asynchronous bundle events while it changes the start level. At the end of the operation the
+ * events are passed to {@link #bundlesChanged(List)} in the order in which they occurred. Outside of a bulk operation
+ * the events are passed to {@link #bundleChanged(BundleEvent)} as usual. This includes the events of other threads
+ * while the start level changes.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public interface BatchBundleListener extends BundleListener {
+
+    /**
+     * Receives a batch of bundle events, in the order in which they occurred.
+     *
+     * @param events the unmodifiable list of events
+     */
+    void bundlesChanged(List<BundleEvent> events);
+}
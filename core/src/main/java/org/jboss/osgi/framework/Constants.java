@@ -45,6 +45,30 @@ public interface Constants extends org.osgi.framework.Constants {
     /** A list of URLs to bundles that get installed and started on framework startup */
     String PROPERTY_AUTO_START_URLS = "org.jboss.osgi.auto.start";
 
+    /** The maximum number of compiled filters that are cached by the framework */
+    String PROPERTY_FILTER_CACHE_SIZE = "org.jboss.osgi.framework.filter.cache.size";
+
+    /** A comma separated list of service property keys that are indexed by the service registry */
+    String PROPERTY_SERVICE_INDEX_KEYS = "org.jboss.osgi.framework.service.index.keys";
+
+    /** Mirror the registered services as MSC services under jbosgi.service.[class name]. Mirroring is disabled by default */
+    String PROPERTY_SERVICE_MSC_MIRROR = "org.jboss.osgi.framework.service.msc.mirror";
+
+    /** The maximum number of cached service lookup results. The cache is disabled by default */
+    String PROPERTY_SERVICE_QUERY_CACHE_SIZE = "org.jboss.osgi.framework.service.query.cache.size";
+
+    /** The number of threads that deliver asynchronous bundle and framework events, for each of the two event types */
+    String PROPERTY_EVENT_DISPATCHER_THREADS = "org.jboss.osgi.framework.event.dispatcher.threads";
+
+    /** The number of pending asynchronous events per event type above which a warning is logged. Producers are never held back */
+    String PROPERTY_EVENT_DISPATCHER_BACKLOG = "org.jboss.osgi.framework.event.dispatcher.backlog";
+
+    /** Record the invocation counts and latencies of event listeners per listener class. The default is false */
+    String PROPERTY_LISTENER_METRICS = "org.jboss.osgi.framework.listener.metrics";
+
+    /** The time in milliseconds above which a synchronous listener call is logged as slow. The default is 1000ms */
+    String PROPERTY_LISTENER_SLOW_THRESHOLD = "org.jboss.osgi.framework.listener.slow.threshold";
+
     /** The default timeout for the framework to initialize is 5sec */
     int DEFAULT_FRAMEWORK_INIT_TIMEOUT = 5000;
 
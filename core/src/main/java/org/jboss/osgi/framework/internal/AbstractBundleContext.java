@@ -37,7 +37,6 @@ import org.osgi.framework.BundleException;
 import org.osgi.framework.BundleListener;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceListener;
 import org.osgi.framework.ServiceReference;
@@ -364,7 +363,7 @@ abstract class AbstractBundleContext implements BundleContext {
     @Override
     public Filter createFilter(String filter) throws InvalidSyntaxException {
         checkValidBundleContext();
-        return FrameworkUtil.createFilter(filter);
+        return getFrameworkEventsPlugin().createFilter(filter);
     }
 
     void checkValidBundleContext() {
@@ -25,6 +25,7 @@ import org.jboss.logging.Logger;
 import org.jboss.modules.ModuleIdentifier;
 import org.jboss.msc.service.ServiceController.Mode;
 import org.jboss.msc.service.ServiceName;
+import org.jboss.osgi.framework.internal.ServiceState.ServiceUsage;
 import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
 import org.jboss.osgi.metadata.OSGiMetaData;
 import org.jboss.osgi.spi.NotImplementedException;
@@ -49,6 +50,7 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.Enumeration;
+import java.util.HashSet;
 import java.util.Hashtable;
 import java.util.List;
 import java.util.Locale;
@@ -57,7 +59,6 @@ import java.util.MissingResourceException;
 import java.util.PropertyResourceBundle;
 import java.util.ResourceBundle;
 import java.util.Set;
-import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -80,8 +81,10 @@ abstract class AbstractBundleState implements Bundle {
     private final FrameworkState frameworkState;
     private final AtomicInteger bundleState = new AtomicInteger(UNINSTALLED);
     private final List<ServiceState> registeredServices = new CopyOnWriteArrayList<ServiceState>();
-    private final ConcurrentHashMap<ServiceState, AtomicInteger> usedServices = new ConcurrentHashMap<ServiceState, AtomicInteger>();
+    private final ConcurrentLongMap<ServiceUsage> usedServices = new ConcurrentLongMap<ServiceUsage>();
     private AbstractBundleContext bundleContext;
+    // The environment generation in which the last attempt to resolve this bundle failed
+    private volatile int resolutionFailedGeneration = -1;
 
     AbstractBundleState(FrameworkState frameworkState, long bundleId, String symbolicName) {
         if (frameworkState == null)
@@ -189,6 +192,10 @@ abstract class AbstractBundleState implements Bundle {
 
         bundleState.set(state);
 
+        // The set of available bundles has changed
+        if (state == Bundle.INSTALLED || state == Bundle.RESOLVED || state == Bundle.UNINSTALLED)
+            getBundleManager().environmentChanged();
+
         // Fire the bundle event
         if (frameworkActive && eventType != 0) {
             fireBundleEvent(eventType);
@@ -210,6 +217,16 @@ abstract class AbstractBundleState implements Bundle {
         registeredServices.remove(serviceState);
     }
 
+    void addRegisteredServices(List<ServiceState> serviceStates) {
+        log.tracef("Add %d registered services to: %s", serviceStates.size(), this);
+        registeredServices.addAll(serviceStates);
+    }
+
+    void removeRegisteredServices(List<ServiceState> serviceStates) {
+        log.tracef("Remove %d registered services from: %s", serviceStates.size(), this);
+        registeredServices.removeAll(serviceStates);
+    }
+
     @Override
     public ServiceReference[] getRegisteredServices() {
         assertNotUninstalled();
@@ -243,27 +260,34 @@ abstract class AbstractBundleState implements Bundle {
     }
 
     Set<ServiceState> getServicesInUseInternal() {
-        return Collections.unmodifiableSet(usedServices.keySet());
+        Set<ServiceState> result = new HashSet<ServiceState>();
+        for (ServiceUsage usage : usedServices.values()) {
+            if (usage.useCount.get() > 0)
+                result.add(usage.serviceState);
+        }
+        return Collections.unmodifiableSet(result);
     }
 
-    void addServiceInUse(ServiceState serviceState) {
-        log.tracef("Add service in use %s to: %s", serviceState, this);
-        usedServices.putIfAbsent(serviceState, new AtomicInteger());
-        AtomicInteger count = usedServices.get(serviceState);
-        count.incrementAndGet();
-    }
+    void addServiceInUse(ServiceUsage usage) {
+        log.tracef("Add service in use %s to: %s", usage.serviceState, this);
+        long serviceId = usage.serviceState.getServiceId();
+        while (true) {
+            ServiceUsage existing = usedServices.putIfAbsent(serviceId, usage);
+            if (existing == null || existing == usage || existing.isRetired() == false)
+                break;
 
-    int removeServiceInUse(ServiceState serviceState) {
-        log.tracef("Remove service in use %s from: %s", serviceState, this);
-        AtomicInteger count = usedServices.get(serviceState);
-        if (count == null)
-            return -1;
+            // Replace a usage that has been retired but not yet removed
+            usedServices.remove(serviceId, existing);
+        }
 
-        int countVal = count.decrementAndGet();
-        if (countVal == 0)
-            usedServices.remove(serviceState);
+        // The usage may have been retired before it was added
+        if (usage.isRetired())
+            usedServices.remove(serviceId, usage);
+    }
 
-        return countVal;
+    void removeServiceInUse(ServiceUsage usage) {
+        log.tracef("Remove service in use %s from: %s", usage.serviceState, this);
+        usedServices.remove(usage.serviceState.getServiceId(), usage);
     }
 
     @Override
@@ -536,6 +560,13 @@ abstract class AbstractBundleState implements Bundle {
 
     abstract void uninstallInternal() throws BundleException;
 
+    /**
+     * True if the last attempt to resolve this bundle failed and the environment has not changed since.
+     */
+    boolean isResolutionFailed() {
+        return resolutionFailedGeneration == getBundleManager().getEnvironmentGeneration();
+    }
+
     ResolutionException ensureResolved(boolean fireEvent) {
 
         if (isUninstalled())
@@ -548,6 +579,7 @@ abstract class AbstractBundleState implements Bundle {
             if (isResolved())
                 return null;
 
+            int generation = getBundleManager().getEnvironmentGeneration();
             try {
                 ResolverPlugin resolverPlugin = getFrameworkState().getResolverPlugin();
                 resolverPlugin.resolveAndApply(Collections.singleton(getCurrentBundleRevision()), null);
@@ -569,6 +601,7 @@ abstract class AbstractBundleState implements Bundle {
 
                 return null;
             } catch (ResolutionException ex) {
+                resolutionFailedGeneration = generation;
                 if (fireEvent == true) {
                     FrameworkEventsPlugin eventsPlugin = getFrameworkState().getFrameworkEventsPlugin();
                     eventsPlugin.fireFrameworkEvent(this, FrameworkEvent.ERROR, new BundleException(ex.getMessage(), ex));
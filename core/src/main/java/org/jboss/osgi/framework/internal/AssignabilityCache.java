@@ -0,0 +1,97 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.osgi.framework.ServiceReference;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A cache of {@link ServiceReference#isAssignableTo(org.osgi.framework.Bundle, String)} results.
+ *
+ * A result is keyed by the requesting revision, the revision of the service owner and the class name. The class space of a
+ * revision only changes when it is refreshed or uninstalled, in which case all results that involve the revision are removed.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class AssignabilityCache {
+
+    private final ConcurrentMap<Key, Boolean> results = new ConcurrentHashMap<Key, Boolean>();
+
+    /**
+     * Get the cached result or null if there is none.
+     */
+    Boolean getResult(AbstractBundleRevision requestingRev, AbstractBundleRevision ownerRev, String className) {
+        return results.get(new Key(requestingRev, ownerRev, className));
+    }
+
+    void putResult(AbstractBundleRevision requestingRev, AbstractBundleRevision ownerRev, String className, boolean result) {
+        results.put(new Key(requestingRev, ownerRev, className), Boolean.valueOf(result));
+    }
+
+    /**
+     * Remove all results that involve the given revision.
+     */
+    void removeRevision(AbstractBundleRevision brev) {
+        Iterator<Key> it = results.keySet().iterator();
+        while (it.hasNext()) {
+            Key key = it.next();
+            if (key.requestingRev == brev || key.ownerRev == brev)
+                it.remove();
+        }
+    }
+
+    void clear() {
+        results.clear();
+    }
+
+    static final class Key {
+
+        final AbstractBundleRevision requestingRev;
+        final AbstractBundleRevision ownerRev;
+        final String className;
+
+        Key(AbstractBundleRevision requestingRev, AbstractBundleRevision ownerRev, String className) {
+            this.requestingRev = requestingRev;
+            this.ownerRev = ownerRev;
+            this.className = className;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = System.identityHashCode(requestingRev);
+            result = 31 * result + System.identityHashCode(ownerRev);
+            return 31 * result + className.hashCode();
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof Key == false)
+                return false;
+            Key other = (Key) obj;
+            return requestingRev == other.requestingRev && ownerRev == other.ownerRev && className.equals(other.className);
+        }
+    }
+}
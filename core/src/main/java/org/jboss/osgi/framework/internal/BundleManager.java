@@ -35,6 +35,7 @@ import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
 
 import org.jboss.logging.Logger;
@@ -108,6 +109,8 @@ public final class BundleManager extends AbstractService<BundleManagerService> i
     private final AtomicLong identityGenerator = new AtomicLong();
     private final Map<String, Object> properties = new HashMap<String, Object>();
     private final AtomicBoolean shutdownInitiated = new AtomicBoolean();
+    private final AtomicInteger environmentGeneration = new AtomicInteger();
+    private final PackageExporterIndex packageExporterIndex = new PackageExporterIndex();
     private final ServiceTarget serviceTarget;
     private ServiceContainer serviceContainer;
 
@@ -208,6 +211,54 @@ public final class BundleManager extends AbstractService<BundleManagerService> i
         return value;
     }
 
+    /**
+     * Get the generation of the bundle environment. It changes whenever a bundle is installed, resolved, refreshed or
+     * uninstalled, so that results that depend on the set of available bundles can be cached for one generation.
+     */
+    int getEnvironmentGeneration() {
+        return environmentGeneration.get();
+    }
+
+    void environmentChanged() {
+        environmentGeneration.incrementAndGet();
+    }
+
+    /**
+     * Get the index of the package capabilities of the bundle revisions that are installed in the environment.
+     */
+    PackageExporterIndex getPackageExporterIndex() {
+        return packageExporterIndex;
+    }
+
+    /**
+     * Get a boolean framework property.
+     */
+    boolean getBooleanProperty(String key, boolean defaultValue) {
+        Object value = getProperty(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Boolean)
+            return ((Boolean) value).booleanValue();
+        return Boolean.parseBoolean(value.toString().trim());
+    }
+
+    /**
+     * Get an integer framework property. Invalid values are logged and replaced by the default.
+     */
+    int getIntegerProperty(String key, int defaultValue) {
+        Object value = getProperty(key);
+        if (value == null)
+            return defaultValue;
+        if (value instanceof Number)
+            return ((Number) value).intValue();
+        try {
+            return Integer.parseInt(value.toString().trim());
+        } catch (NumberFormatException ex) {
+            log.warnf("Invalid integer property %s=%s", key, value);
+            return defaultValue;
+        }
+    }
+
     /**
      * Returns the framework properties merged with the System properties. The returned map is consistent with the
      * {@link #getProperty(String)} API.
@@ -473,20 +524,24 @@ public final class BundleManager extends AbstractService<BundleManagerService> i
         XEnvironment env = getFrameworkState().getEnvironment();
         for (AbstractBundleRevision abr : userBundle.getAllBundleRevisions()) {
             env.uninstallResources(abr);
+            packageExporterIndex.removeRevision(abr);
         }
 
         FrameworkEventsPlugin eventsPlugin = getFrameworkState().getFrameworkEventsPlugin();
         eventsPlugin.fireBundleEvent(userBundle, BundleEvent.UNRESOLVED);
 
         ModuleManagerPlugin moduleManager = getFrameworkState().getModuleManagerPlugin();
+        ServiceManagerPlugin serviceManager = getFrameworkState().getServiceManagerPlugin();
         for (AbstractBundleRevision rev : userBundle.getAllBundleRevisions()) {
             UserBundleRevision userRev = (UserBundleRevision) rev;
+            serviceManager.removeClassSpace(rev);
             if (userBundle.isFragment() == false) {
                 ModuleIdentifier identifier = moduleManager.getModuleIdentifier(rev);
                 moduleManager.removeModule(identifier);
             }
             userRev.close();
         }
+        environmentChanged();
 
         log.debugf("Removed bundle: %s", userBundle);
     }
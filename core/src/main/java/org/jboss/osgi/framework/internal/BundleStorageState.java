@@ -26,11 +26,17 @@ import org.jboss.osgi.vfs.AbstractVFS;
 import org.jboss.osgi.vfs.VFSUtils;
 import org.jboss.osgi.vfs.VirtualFile;
 
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.Properties;
 import java.util.Set;
@@ -54,6 +60,9 @@ final class BundleStorageState {
     static final String PROPERTY_PERSISTENTLY_STARTED = "PersistentlyStarted";
     static final String PROPERTY_ACTIVATION_POLICY_USED = "ActivationPolicyUsed";
     static final String BUNDLE_PERSISTENT_PROPERTIES = "bundle-persistent.properties";
+    static final String PATH_INDEX_SUFFIX = ".paths";
+
+    private static final int PATH_INDEX_VERSION = 1;
 
     private final File bundleDir;
     private final VirtualFile rootFile;
@@ -179,6 +188,87 @@ final class BundleStorageState {
         writeProperties();
     }
 
+    /**
+     * Get the stored copy of the revision content, or null if the revision has no content.
+     */
+    File getRevisionFile() {
+        String vfsLocation = props.getProperty(PROPERTY_BUNDLE_FILE);
+        return vfsLocation != null ? new File(bundleDir + "/" + vfsLocation) : null;
+    }
+
+    /**
+     * Get the stored paths of the given content root of this revision.
+     *
+     * @return the paths or null if they were not stored, or if the revision file has changed since
+     */
+    Set<String> loadContentPaths(int contentId) {
+        File revFile = getRevisionFile();
+        if (revFile == null)
+            return null;
+
+        File indexFile = getPathIndexFile(revFile, contentId);
+        if (indexFile.exists() == false)
+            return null;
+
+        try {
+            DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)));
+            try {
+                if (input.readInt() != PATH_INDEX_VERSION || input.readLong() != revFile.length() || input.readLong() != revFile.lastModified()) {
+                    log.debugf("Stale path index: %s", indexFile);
+                    return null;
+                }
+                int size = input.readInt();
+                Set<String> result = new HashSet<String>(size * 2);
+                for (int i = 0; i < size; i++)
+                    result.add(input.readUTF());
+                return Collections.unmodifiableSet(result);
+            } finally {
+                VFSUtils.safeClose(input);
+            }
+        } catch (IOException ex) {
+            log.debugf(ex, "Cannot read path index: %s", indexFile);
+            return null;
+        }
+    }
+
+    /**
+     * Store the paths of the given content root of this revision, so that they can be loaded after a restart.
+     */
+    void storeContentPaths(int contentId, Collection<String> paths) {
+        File revFile = getRevisionFile();
+        if (revFile == null || revFile.exists() == false)
+            return;
+
+        // Write to a temporary file, so that an interrupted write is never read
+        File indexFile = getPathIndexFile(revFile, contentId);
+        File tmpFile = new File(indexFile.getPath() + ".tmp");
+        try {
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+            try {
+                output.writeInt(PATH_INDEX_VERSION);
+                output.writeLong(revFile.length());
+                output.writeLong(revFile.lastModified());
+                output.writeInt(paths.size());
+                for (String path : paths)
+                    output.writeUTF(path);
+                output.close();
+            } finally {
+                VFSUtils.safeClose(output);
+            }
+            indexFile.delete();
+            if (tmpFile.renameTo(indexFile) == false)
+                log.debugf("Cannot rename path index: %s", tmpFile);
+        } catch (IOException ex) {
+            log.errorf(ex, "Cannot write path index: %s", indexFile);
+        } finally {
+            tmpFile.delete();
+        }
+    }
+
+    private File getPathIndexFile(File revFile, int contentId) {
+        return new File(bundleDir + "/" + revFile.getName() + "-" + contentId + PATH_INDEX_SUFFIX);
+    }
+
     void deleteBundleStorage() {
         VFSUtils.safeClose(rootFile);
         deleteInternal(bundleDir);
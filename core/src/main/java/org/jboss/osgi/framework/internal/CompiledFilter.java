@@ -0,0 +1,747 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.logging.Logger;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.InvalidSyntaxException;
+import org.osgi.framework.ServiceReference;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Dictionary;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+
+/**
+ * A {@link Filter} that evaluates directly against the properties of a {@link ServiceState}.
+ *
+ * The filter string is parsed and validated by {@link FrameworkUtil#createFilter(String)}. The normalized form is then compiled
+ * into a tree of match nodes that carry the pre-parsed operand values. Matching a {@link ServiceState} reads its {@link ServiceProperties}
+ * directly without wrapping them in a {@link Dictionary}. The semantics follow the OSGi filter implementation.
+ *
+ * Matching a {@link Dictionary} is delegated to the filter that was created by the {@link FrameworkUtil}.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class CompiledFilter implements Filter {
+
+    // Provide logging
+    private static final Logger log = Logger.getLogger(CompiledFilter.class);
+
+    private static final String OBJECTCLASS_KEY = Constants.OBJECTCLASS.toLowerCase(Locale.ENGLISH);
+
+    private final Filter delegate;
+    private final String filterString;
+    private final Node root;
+
+    private CompiledFilter(Filter delegate, String filterString, Node root) {
+        this.delegate = delegate;
+        this.filterString = filterString;
+        this.root = root;
+    }
+
+    /**
+     * Create a compiled filter for the given filter string.
+     *
+     * @throws InvalidSyntaxException if the filter string contains an invalid filter
+     */
+    static CompiledFilter create(String filterstr) throws InvalidSyntaxException {
+        Filter delegate = FrameworkUtil.createFilter(filterstr);
+        String normalized = delegate.toString();
+        Node root = null;
+        try {
+            root = new Parser(normalized).parse();
+        } catch (RuntimeException ex) {
+            // Fall back to the framework filter
+            log.debugf(ex, "Cannot compile filter: %s", normalized);
+        }
+        return new CompiledFilter(delegate, normalized, root);
+    }
+
+    /**
+     * Get the root of the compiled filter tree or null if the filter could not be compiled.
+     */
+    Node getRoot() {
+        return root;
+    }
+
+    /**
+     * Get the objectClass values of which a matching service must have at least one.
+     *
+     * @return the values or null if the filter does not restrict the objectClass to exact values
+     */
+    String[] getObjectClasses() {
+        Set<String> result = new LinkedHashSet<String>();
+        if (root == null || collectObjectClasses(root, result) == false)
+            return null;
+        return result.toArray(new String[result.size()]);
+    }
+
+    private static boolean collectObjectClasses(Node node, Set<String> result) {
+        if (node instanceof CompareNode) {
+            CompareNode compare = (CompareNode) node;
+            if (compare.operation != CompareNode.EQUAL || compare.key.equals(OBJECTCLASS_KEY) == false)
+                return false;
+            result.add(compare.value);
+            return true;
+        }
+        if (node instanceof AndNode) {
+            for (Node operand : ((AndNode) node).operands) {
+                Set<String> values = new LinkedHashSet<String>();
+                if (collectObjectClasses(operand, values)) {
+                    result.addAll(values);
+                    return true;
+                }
+            }
+            return false;
+        }
+        if (node instanceof OrNode) {
+            for (Node operand : ((OrNode) node).operands) {
+                if (collectObjectClasses(operand, result) == false)
+                    return false;
+            }
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Match the filter against the properties of the given service.
+     */
+    boolean match(ServiceState serviceState) {
+        if (root == null)
+            return delegate.match(serviceState);
+
+        return root.match(serviceState.getProperties());
+    }
+
+    /**
+     * Match the filter against the given service properties.
+     */
+    boolean match(ServiceProperties properties) {
+        if (root == null)
+            return delegate.match(properties.toDictionary());
+
+        return root.match(properties);
+    }
+
+    @Override
+    public boolean match(ServiceReference reference) {
+        if (root != null) {
+            if (reference instanceof ServiceState)
+                return root.match(((ServiceState) reference).getProperties());
+            if (reference instanceof ServiceReferenceWrapper)
+                return root.match(((ServiceReferenceWrapper) reference).getServiceState().getProperties());
+        }
+        return delegate.match(reference);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean match(Dictionary dictionary) {
+        return delegate.match(dictionary);
+    }
+
+    @Override
+    @SuppressWarnings("rawtypes")
+    public boolean matchCase(Dictionary dictionary) {
+        return delegate.matchCase(dictionary);
+    }
+
+    @Override
+    public int hashCode() {
+        return filterString.hashCode();
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+        if (obj == this)
+            return true;
+        if (obj instanceof Filter == false)
+            return false;
+        return filterString.equals(obj.toString());
+    }
+
+    @Override
+    public String toString() {
+        return filterString;
+    }
+
+    /**
+     * A node in the compiled filter tree
+     */
+    static abstract class Node {
+
+        abstract boolean match(ServiceProperties properties);
+    }
+
+    static final class AndNode extends Node {
+
+        final Node[] operands;
+
+        AndNode(Node[] operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean match(ServiceProperties properties) {
+            for (Node operand : operands) {
+                if (operand.match(properties) == false)
+                    return false;
+            }
+            return true;
+        }
+    }
+
+    static final class OrNode extends Node {
+
+        final Node[] operands;
+
+        OrNode(Node[] operands) {
+            this.operands = operands;
+        }
+
+        @Override
+        boolean match(ServiceProperties properties) {
+            for (Node operand : operands) {
+                if (operand.match(properties))
+                    return true;
+            }
+            return false;
+        }
+    }
+
+    static final class NotNode extends Node {
+
+        private final Node operand;
+
+        NotNode(Node operand) {
+            this.operand = operand;
+        }
+
+        @Override
+        boolean match(ServiceProperties properties) {
+            return operand.match(properties) == false;
+        }
+    }
+
+    static final class PresentNode extends Node {
+
+        final String attr;
+        final String key;
+
+        PresentNode(String attr) {
+            this.attr = attr;
+            this.key = attr.toLowerCase(Locale.ENGLISH);
+        }
+
+        @Override
+        boolean match(ServiceProperties properties) {
+            return properties.getLowerCase(key) != null;
+        }
+    }
+
+    /**
+     * A comparison of an attribute with an operand value.
+     *
+     * The operand is converted to the primitive types once at compile time.
+     */
+    static final class CompareNode extends Node {
+
+        static final int EQUAL = 1;
+        static final int APPROX = 2;
+        static final int GREATER = 3;
+        static final int LESS = 4;
+        static final int SUBSTRING = 5;
+
+        final int operation;
+        final String attr;
+        final String key;
+        final String value;
+        final String[] substrings;
+        private final String trimmed;
+        private final String approxValue;
+        private final boolean validLong;
+        private final long longValue;
+        private final boolean validFloat;
+        private final float floatValue;
+        private final boolean validDouble;
+        private final double doubleValue;
+        private final boolean booleanValue;
+
+        CompareNode(int operation, String attr, String value, String[] substrings) {
+            this.operation = operation;
+            this.attr = attr;
+            this.key = attr.toLowerCase(Locale.ENGLISH);
+            this.value = value;
+            this.substrings = substrings;
+
+            String aux = (value != null ? value.trim() : null);
+            trimmed = aux;
+            approxValue = (value != null ? approxString(value) : null);
+
+            long lval = 0;
+            boolean lvalid = false;
+            float fval = 0;
+            boolean fvalid = false;
+            double dval = 0;
+            boolean dvalid = false;
+            if (aux != null) {
+                try {
+                    lval = Long.parseLong(aux);
+                    lvalid = true;
+                } catch (NumberFormatException ex) {
+                    // not a long
+                }
+                try {
+                    fval = Float.parseFloat(aux);
+                    fvalid = true;
+                } catch (NumberFormatException ex) {
+                    // not a float
+                }
+                try {
+                    dval = Double.parseDouble(aux);
+                    dvalid = true;
+                } catch (NumberFormatException ex) {
+                    // not a double
+                }
+            }
+            longValue = lval;
+            validLong = lvalid;
+            floatValue = fval;
+            validFloat = fvalid;
+            doubleValue = dval;
+            validDouble = dvalid;
+            booleanValue = (aux != null && Boolean.valueOf(aux).booleanValue());
+        }
+
+        @Override
+        boolean match(ServiceProperties properties) {
+            return compare(properties.getLowerCase(key));
+        }
+
+        private boolean compare(Object prop) {
+            if (prop == null)
+                return false;
+            if (prop instanceof String)
+                return compareString((String) prop);
+
+            Class<?> clazz = prop.getClass();
+            if (clazz.isArray()) {
+                Class<?> type = clazz.getComponentType();
+                if (type.isPrimitive())
+                    return comparePrimitiveArray(type, prop);
+
+                for (Object element : (Object[]) prop) {
+                    if (compare(element))
+                        return true;
+                }
+                return false;
+            }
+            if (prop instanceof Collection) {
+                for (Object element : (Collection<?>) prop) {
+                    if (compare(element))
+                        return true;
+                }
+                return false;
+            }
+            if (prop instanceof Integer)
+                return compareLong(((Integer) prop).intValue(), Integer.MIN_VALUE, Integer.MAX_VALUE);
+            if (prop instanceof Long)
+                return compareLong(((Long) prop).longValue(), Long.MIN_VALUE, Long.MAX_VALUE);
+            if (prop instanceof Byte)
+                return compareLong(((Byte) prop).byteValue(), Byte.MIN_VALUE, Byte.MAX_VALUE);
+            if (prop instanceof Short)
+                return compareLong(((Short) prop).shortValue(), Short.MIN_VALUE, Short.MAX_VALUE);
+            if (prop instanceof Character)
+                return compareCharacter(((Character) prop).charValue());
+            if (prop instanceof Float)
+                return compareFloat(((Float) prop).floatValue());
+            if (prop instanceof Double)
+                return compareDouble(((Double) prop).doubleValue());
+            if (prop instanceof Boolean)
+                return compareBoolean(((Boolean) prop).booleanValue());
+            if (prop instanceof Comparable)
+                return compareComparable(prop);
+
+            return compareUnknown(prop);
+        }
+
+        private boolean comparePrimitiveArray(Class<?> type, Object array) {
+            int length = Array.getLength(array);
+            for (int i = 0; i < length; i++) {
+                boolean result;
+                if (type == Integer.TYPE)
+                    result = compareLong(Array.getInt(array, i), Integer.MIN_VALUE, Integer.MAX_VALUE);
+                else if (type == Long.TYPE)
+                    result = compareLong(Array.getLong(array, i), Long.MIN_VALUE, Long.MAX_VALUE);
+                else if (type == Byte.TYPE)
+                    result = compareLong(Array.getByte(array, i), Byte.MIN_VALUE, Byte.MAX_VALUE);
+                else if (type == Short.TYPE)
+                    result = compareLong(Array.getShort(array, i), Short.MIN_VALUE, Short.MAX_VALUE);
+                else if (type == Character.TYPE)
+                    result = compareCharacter(Array.getChar(array, i));
+                else if (type == Float.TYPE)
+                    result = compareFloat(Array.getFloat(array, i));
+                else if (type == Double.TYPE)
+                    result = compareDouble(Array.getDouble(array, i));
+                else if (type == Boolean.TYPE)
+                    result = compareBoolean(Array.getBoolean(array, i));
+                else
+                    result = false;
+                if (result)
+                    return true;
+            }
+            return false;
+        }
+
+        private boolean compareString(String string) {
+            switch (operation) {
+                case SUBSTRING:
+                    return matchSubstrings(string);
+                case EQUAL:
+                    return string.equals(value);
+                case APPROX:
+                    return approxString(string).equalsIgnoreCase(approxValue);
+                case GREATER:
+                    return string.compareTo(value) >= 0;
+                case LESS:
+                    return string.compareTo(value) <= 0;
+            }
+            return false;
+        }
+
+        private boolean matchSubstrings(String string) {
+            int pos = 0;
+            for (int i = 0, size = substrings.length; i < size; i++) {
+                String substr = substrings[i];
+                if (i + 1 < size) {
+                    if (substr == null) {
+                        String substr2 = substrings[i + 1];
+                        if (substr2 == null)
+                            continue;
+                        int index = string.indexOf(substr2, pos);
+                        if (index == -1)
+                            return false;
+                        pos = index + substr2.length();
+                        if (i + 2 < size)
+                            i++;
+                    } else {
+                        int len = substr.length();
+                        if (string.regionMatches(pos, substr, 0, len))
+                            pos += len;
+                        else
+                            return false;
+                    }
+                } else {
+                    if (substr == null)
+                        return true;
+                    return string.endsWith(substr);
+                }
+            }
+            return true;
+        }
+
+        private boolean compareLong(long lval, long min, long max) {
+            if (operation == SUBSTRING || validLong == false || longValue < min || longValue > max)
+                return false;
+            switch (operation) {
+                case APPROX:
+                case EQUAL:
+                    return lval == longValue;
+                case GREATER:
+                    return lval >= longValue;
+                case LESS:
+                    return lval <= longValue;
+            }
+            return false;
+        }
+
+        private boolean compareCharacter(char charval) {
+            if (operation == SUBSTRING || value.length() == 0)
+                return false;
+            char charval2 = value.charAt(0);
+            switch (operation) {
+                case EQUAL:
+                    return charval == charval2;
+                case APPROX:
+                    return (charval == charval2) || (Character.toUpperCase(charval) == Character.toUpperCase(charval2))
+                            || (Character.toLowerCase(charval) == Character.toLowerCase(charval2));
+                case GREATER:
+                    return charval >= charval2;
+                case LESS:
+                    return charval <= charval2;
+            }
+            return false;
+        }
+
+        private boolean compareFloat(float fval) {
+            if (operation == SUBSTRING || validFloat == false)
+                return false;
+            switch (operation) {
+                case APPROX:
+                case EQUAL:
+                    return Float.compare(fval, floatValue) == 0;
+                case GREATER:
+                    return Float.compare(fval, floatValue) >= 0;
+                case LESS:
+                    return Float.compare(fval, floatValue) <= 0;
+            }
+            return false;
+        }
+
+        private boolean compareDouble(double dval) {
+            if (operation == SUBSTRING || validDouble == false)
+                return false;
+            switch (operation) {
+                case APPROX:
+                case EQUAL:
+                    return Double.compare(dval, doubleValue) == 0;
+                case GREATER:
+                    return Double.compare(dval, doubleValue) >= 0;
+                case LESS:
+                    return Double.compare(dval, doubleValue) <= 0;
+            }
+            return false;
+        }
+
+        private boolean compareBoolean(boolean bval) {
+            if (operation == SUBSTRING)
+                return false;
+            return bval == booleanValue;
+        }
+
+        @SuppressWarnings({ "rawtypes", "unchecked" })
+        private boolean compareComparable(Object prop) {
+            if (operation == SUBSTRING)
+                return false;
+            Object operand = newInstance(prop.getClass());
+            if (operand == null)
+                return false;
+            int result = ((Comparable) prop).compareTo(operand);
+            switch (operation) {
+                case APPROX:
+                case EQUAL:
+                    return result == 0;
+                case GREATER:
+                    return result >= 0;
+                case LESS:
+                    return result <= 0;
+            }
+            return false;
+        }
+
+        private boolean compareUnknown(Object prop) {
+            if (operation == SUBSTRING)
+                return false;
+            Object operand = newInstance(prop.getClass());
+            return operand != null && prop.equals(operand);
+        }
+
+        private Object newInstance(Class<?> clazz) {
+            try {
+                Constructor<?> ctor = clazz.getConstructor(String.class);
+                SecurityActions.setAccessible(ctor);
+                return ctor.newInstance(trimmed);
+            } catch (Exception ex) {
+                return null;
+            }
+        }
+
+        static String approxString(String input) {
+            boolean changed = false;
+            char[] output = input.toCharArray();
+            int cursor = 0;
+            for (char c : output) {
+                if (Character.isWhitespace(c)) {
+                    changed = true;
+                    continue;
+                }
+                output[cursor] = c;
+                cursor++;
+            }
+            return changed ? new String(output, 0, cursor) : input;
+        }
+    }
+
+    /**
+     * Parses the normalized filter string
+     */
+    static final class Parser {
+
+        private final String filterstr;
+        private final char[] chars;
+        private int pos;
+
+        Parser(String filterstr) {
+            this.filterstr = filterstr;
+            this.chars = filterstr.toCharArray();
+        }
+
+        Node parse() {
+            Node node = parseFilter();
+            skipWhitespace();
+            if (pos != chars.length)
+                throw new IllegalArgumentException("Extraneous trailing characters: " + filterstr.substring(pos));
+            return node;
+        }
+
+        private Node parseFilter() {
+            skipWhitespace();
+            expect('(');
+            skipWhitespace();
+            Node node;
+            switch (chars[pos]) {
+                case '&':
+                    pos++;
+                    node = new AndNode(parseFilterList());
+                    break;
+                case '|':
+                    pos++;
+                    node = new OrNode(parseFilterList());
+                    break;
+                case '!':
+                    pos++;
+                    node = new NotNode(parseFilter());
+                    break;
+                default:
+                    node = parseItem();
+            }
+            skipWhitespace();
+            expect(')');
+            return node;
+        }
+
+        private Node[] parseFilterList() {
+            List<Node> operands = new ArrayList<Node>();
+            skipWhitespace();
+            while (chars[pos] == '(') {
+                operands.add(parseFilter());
+                skipWhitespace();
+            }
+            if (operands.isEmpty())
+                throw new IllegalArgumentException("Missing filter operands: " + filterstr);
+            return operands.toArray(new Node[operands.size()]);
+        }
+
+        private Node parseItem() {
+            String attr = parseAttr();
+            char c = chars[pos];
+            if (c == '~' || c == '>' || c == '<') {
+                expect(c);
+                expect('=');
+                int operation = (c == '~' ? CompareNode.APPROX : c == '>' ? CompareNode.GREATER : CompareNode.LESS);
+                return new CompareNode(operation, attr, parseValue(), null);
+            }
+            expect('=');
+            if (chars[pos] == '*' && chars[pos + 1] == ')') {
+                pos++;
+                return new PresentNode(attr);
+            }
+            List<String> operands = parseSubstrings();
+            if (operands.isEmpty())
+                return new CompareNode(CompareNode.EQUAL, attr, "", null);
+            if (operands.size() == 1 && operands.get(0) != null)
+                return new CompareNode(CompareNode.EQUAL, attr, operands.get(0), null);
+            return new CompareNode(CompareNode.SUBSTRING, attr, null, operands.toArray(new String[operands.size()]));
+        }
+
+        private String parseAttr() {
+            skipWhitespace();
+            int begin = pos;
+            int end = pos;
+            char c = chars[pos];
+            while (c != '~' && c != '<' && c != '>' && c != '=' && c != '(' && c != ')') {
+                pos++;
+                if (Character.isWhitespace(c) == false)
+                    end = pos;
+                c = chars[pos];
+            }
+            if (end == begin)
+                throw new IllegalArgumentException("Missing attr: " + filterstr.substring(pos));
+            return new String(chars, begin, end - begin);
+        }
+
+        private String parseValue() {
+            StringBuilder sb = new StringBuilder();
+            while (true) {
+                char c = chars[pos];
+                if (c == ')')
+                    break;
+                if (c == '(')
+                    throw new IllegalArgumentException("Invalid value: " + filterstr.substring(pos));
+                if (c == '\\')
+                    c = chars[++pos];
+                sb.append(c);
+                pos++;
+            }
+            return sb.toString();
+        }
+
+        private List<String> parseSubstrings() {
+            StringBuilder sb = new StringBuilder();
+            List<String> operands = new ArrayList<String>();
+            while (true) {
+                char c = chars[pos];
+                if (c == ')') {
+                    if (sb.length() > 0)
+                        operands.add(sb.toString());
+                    break;
+                }
+                if (c == '(')
+                    throw new IllegalArgumentException("Invalid value: " + filterstr.substring(pos));
+                if (c == '*') {
+                    if (sb.length() > 0)
+                        operands.add(sb.toString());
+                    sb.setLength(0);
+                    operands.add(null);
+                    pos++;
+                    continue;
+                }
+                if (c == '\\')
+                    c = chars[++pos];
+                sb.append(c);
+                pos++;
+            }
+            return operands;
+        }
+
+        private void expect(char c) {
+            if (chars[pos] != c)
+                throw new IllegalArgumentException("Expected '" + c + "' at: " + filterstr.substring(pos));
+            pos++;
+        }
+
+        private void skipWhitespace() {
+            while (pos < chars.length && Character.isWhitespace(chars[pos]))
+                pos++;
+        }
+    }
+}
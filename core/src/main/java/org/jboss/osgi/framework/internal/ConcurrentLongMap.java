@@ -0,0 +1,174 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A concurrent map with primitive long keys.
+ *
+ * Reads are lock free and do not allocate. They go to an immutable open addressing table. Writes are serialized and
+ * replace the table, which suits maps that are read much more often than written, such as per bundle values keyed by
+ * bundle id.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class ConcurrentLongMap<V> {
+
+    private static final Table EMPTY = new Table(new long[1], new Object[1], 0);
+
+    private volatile Table table = EMPTY;
+
+    @SuppressWarnings("unchecked")
+    V get(long key) {
+        return (V) table.get(key);
+    }
+
+    /**
+     * Associate the value with the given key if there is no value yet.
+     *
+     * @return the previous value or null if the given value was added
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V putIfAbsent(long key, V value) {
+        if (value == null)
+            throw new IllegalArgumentException("Null value");
+
+        Table current = table;
+        Object previous = current.get(key);
+        if (previous != null)
+            return (V) previous;
+
+        table = current.copy(current.size + 1, key, value);
+        return null;
+    }
+
+    /**
+     * Remove the value for the given key.
+     *
+     * @return the removed value or null
+     */
+    @SuppressWarnings("unchecked")
+    synchronized V remove(long key) {
+        Table current = table;
+        Object previous = current.get(key);
+        if (previous != null)
+            table = current.copy(current.size - 1, key, null);
+        return (V) previous;
+    }
+
+    /**
+     * Remove the value for the given key if it is the given value.
+     *
+     * @return true if the value was removed
+     */
+    synchronized boolean remove(long key, V value) {
+        Table current = table;
+        if (value == null || current.get(key) != value)
+            return false;
+
+        table = current.copy(current.size - 1, key, null);
+        return true;
+    }
+
+    /**
+     * Get a snapshot of the values.
+     */
+    @SuppressWarnings("unchecked")
+    List<V> values() {
+        Table current = table;
+        List<V> result = new ArrayList<V>(current.size);
+        for (Object value : current.values) {
+            if (value != null)
+                result.add((V) value);
+        }
+        return result;
+    }
+
+    int size() {
+        return table.size;
+    }
+
+    synchronized void clear() {
+        table = EMPTY;
+    }
+
+    static final class Table {
+
+        final long[] keys;
+        final Object[] values;
+        final int size;
+
+        Table(long[] keys, Object[] values, int size) {
+            this.keys = keys;
+            this.values = values;
+            this.size = size;
+        }
+
+        Object get(long key) {
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (true) {
+                Object value = values[index];
+                if (value == null)
+                    return null;
+                if (keys[index] == key)
+                    return value;
+                index = (index + 1) & mask;
+            }
+        }
+
+        /**
+         * Copy the table with the given size, putting or removing (value == null) the given key.
+         */
+        Table copy(int newSize, long key, Object value) {
+            int capacity = 2;
+            while (capacity < newSize * 2)
+                capacity <<= 1;
+
+            Table result = new Table(new long[capacity], new Object[capacity], newSize);
+            for (int i = 0; i < keys.length; i++) {
+                if (values[i] != null && keys[i] != key)
+                    result.add(keys[i], values[i]);
+            }
+            if (value != null)
+                result.add(key, value);
+            return result;
+        }
+
+        private void add(long key, Object value) {
+            int mask = keys.length - 1;
+            int index = hash(key) & mask;
+            while (values[index] != null)
+                index = (index + 1) & mask;
+            keys[index] = key;
+            values[index] = value;
+        }
+
+        private static int hash(long key) {
+            int hash = (int) (key ^ (key >>> 32));
+            return hash ^ (hash >>> 16);
+        }
+    }
+}
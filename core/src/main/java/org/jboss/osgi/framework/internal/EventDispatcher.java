@@ -0,0 +1,237 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.logging.Logger;
+
+import java.util.LinkedList;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Delivers asynchronous events to listeners.
+ *
+ * Every listener has a serial queue of pending deliveries, so that a listener receives its events in the order in which
+ * they were dispatched. The queues of different listeners are drained in parallel on a shared pool of threads, so that a
+ * slow listener does not delay the others. A queue only exists while deliveries are pending.
+ *
+ * A thread that dispatches an event is never held back, because events are fired on lifecycle paths that hold framework
+ * locks which a listener may need. Deliveries beyond the configured backlog are still queued, but they are counted as
+ * overflows and a warning is logged when the backlog first exceeds its limit.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class EventDispatcher {
+
+    // Provide logging
+    private static final Logger log = Logger.getLogger(EventDispatcher.class);
+
+    static final int DEFAULT_THREADS = 4;
+    static final int DEFAULT_BACKLOG = 10000;
+
+    private final String name;
+    private final int maxBacklog;
+    private final ThreadPoolExecutor executor;
+    private final ThreadGroup threadGroup;
+    private final ConcurrentMap<Object, SerialQueue> queues = new ConcurrentHashMap<Object, SerialQueue>();
+
+    private final AtomicInteger backlog = new AtomicInteger();
+    private final AtomicInteger peakBacklog = new AtomicInteger();
+    private final AtomicLong dispatchedCount = new AtomicLong();
+    private final AtomicLong overflowCount = new AtomicLong();
+
+    EventDispatcher(final String name, int threads, int maxBacklog) {
+        if (name == null)
+            throw new IllegalArgumentException("Null name");
+        if (threads < 1)
+            throw new IllegalArgumentException("Invalid number of threads: " + threads);
+        if (maxBacklog < 1)
+            throw new IllegalArgumentException("Invalid backlog: " + maxBacklog);
+
+        this.name = name;
+        this.maxBacklog = maxBacklog;
+        this.threadGroup = new ThreadGroup(name);
+        final AtomicInteger threadCount = new AtomicInteger();
+        ThreadFactory threadFactory = new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable run) {
+                Thread thread = new Thread(threadGroup, run);
+                thread.setName(name + " Thread-" + threadCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+        executor = new ThreadPoolExecutor(threads, threads, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(), threadFactory);
+        executor.allowCoreThreadTimeOut(true);
+    }
+
+    /**
+     * Deliver an event to the given listener. The delivery runs after all previously dispatched deliveries to the same
+     * listener.
+     */
+    void dispatch(Object listener, Runnable delivery) {
+        if (listener == null)
+            throw new IllegalArgumentException("Null listener");
+        if (delivery == null)
+            throw new IllegalArgumentException("Null delivery");
+
+        acquireBacklog();
+        dispatchedCount.incrementAndGet();
+        while (true) {
+            SerialQueue queue = queues.get(listener);
+            if (queue == null) {
+                queue = new SerialQueue(listener);
+                SerialQueue existing = queues.putIfAbsent(listener, queue);
+                if (existing != null)
+                    queue = existing;
+            }
+            // A queue that has drained is closed and must be replaced
+            if (queue.offer(delivery))
+                return;
+        }
+    }
+
+    /**
+     * Stop the dispatcher threads after the pending deliveries have completed.
+     */
+    void shutdown() {
+        executor.shutdown();
+    }
+
+    String getName() {
+        return name;
+    }
+
+    int getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    int getBacklog() {
+        return backlog.get();
+    }
+
+    int getPeakBacklog() {
+        return peakBacklog.get();
+    }
+
+    long getDispatchedCount() {
+        return dispatchedCount.get();
+    }
+
+    long getOverflowCount() {
+        return overflowCount.get();
+    }
+
+    private void acquireBacklog() {
+        int current = backlog.incrementAndGet();
+        int peak = peakBacklog.get();
+        while (current > peak && peakBacklog.compareAndSet(peak, current) == false)
+            peak = peakBacklog.get();
+
+        if (current > maxBacklog) {
+            overflowCount.incrementAndGet();
+            if (current == maxBacklog + 1)
+                log.warnf("%s has more than %d pending events", name, maxBacklog);
+        }
+    }
+
+    private void releaseBacklog() {
+        backlog.decrementAndGet();
+    }
+
+    /**
+     * The pending deliveries to one listener.
+     */
+    final class SerialQueue implements Runnable {
+
+        private final Object listener;
+        private final LinkedList<Runnable> deliveries = new LinkedList<Runnable>();
+        private boolean scheduled;
+        private boolean closed;
+
+        SerialQueue(Object listener) {
+            this.listener = listener;
+        }
+
+        /**
+         * Add a delivery to the queue.
+         *
+         * @return false if the queue has been closed
+         */
+        boolean offer(Runnable delivery) {
+            synchronized (this) {
+                if (closed)
+                    return false;
+                deliveries.add(delivery);
+                if (scheduled)
+                    return true;
+                scheduled = true;
+            }
+            try {
+                executor.execute(this);
+            } catch (RejectedExecutionException ex) {
+                log.debugf("%s has been shut down, discarding events for: %s", name, listener);
+                discard();
+            }
+            return true;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                Runnable delivery;
+                synchronized (this) {
+                    delivery = deliveries.poll();
+                    if (delivery == null) {
+                        closed = true;
+                        queues.remove(listener, this);
+                        return;
+                    }
+                }
+                try {
+                    delivery.run();
+                } catch (Throwable th) {
+                    log.warnf(th, "Error while delivering event to: %s", listener);
+                } finally {
+                    releaseBacklog();
+                }
+            }
+        }
+
+        private void discard() {
+            synchronized (this) {
+                while (deliveries.poll() != null)
+                    releaseBacklog();
+                closed = true;
+                queues.remove(listener, this);
+            }
+        }
+    }
+}
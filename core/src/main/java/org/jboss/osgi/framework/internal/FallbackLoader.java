@@ -27,9 +27,12 @@ import java.net.URL;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jboss.logging.Logger;
@@ -41,7 +44,6 @@ import org.jboss.modules.Resource;
 import org.jboss.osgi.resolver.XPackageCapability;
 import org.jboss.osgi.resolver.XPackageRequirement;
 import org.jboss.osgi.spi.NotImplementedException;
-import org.jboss.osgi.vfs.VFSUtils;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.resource.Capability;
 import org.osgi.framework.resource.Requirement;
@@ -50,6 +52,9 @@ import org.osgi.framework.wiring.BundleRevision;
 /**
  * A fallback loader that takes care of dynamic class/resource loads.
  *
+ * The exporter that was found for a package, and the resources that could not be found, are cached until the next bundle
+ * is installed, resolved, refreshed or uninstalled.
+ *
  * @author thomas.diesler@jboss.com
  * @since 24-Feb-2012
  */
@@ -58,7 +63,12 @@ final class FallbackLoader implements LocalLoader {
     // Provide logging
     private static final Logger log = Logger.getLogger(FallbackLoader.class);
 
+    // The maximum number of resources that are remembered as not found
+    private static final int MAX_NOT_FOUND = 1024;
+
     private static ThreadLocal<Map<String, AtomicInteger>> dynamicLoadAttempts;
+    private volatile DynamicCache dynamicCache = new DynamicCache(-1);
+    private volatile PackagePatternMatcher<XPackageRequirement> patternMatcher;
     private final HostBundleState hostBundle;
     private final HostBundleRevision hostRev;
     private final ModuleIdentifier identifier;
@@ -84,7 +94,7 @@ final class FallbackLoader implements LocalLoader {
     @Override
     public Class<?> loadClassLocal(String className, boolean resolve) {
 
-        List<XPackageRequirement> matchingPatterns = findMatchingPatterns(className);
+        List<XPackageRequirement> matchingPatterns = findMatchingPatterns(className, className.lastIndexOf('.'));
         if (matchingPatterns.isEmpty())
             return null;
 
@@ -113,7 +123,7 @@ final class FallbackLoader implements LocalLoader {
         if (resName.startsWith("/"))
             resName = resName.substring(1);
 
-        List<XPackageRequirement> matchingPatterns = findMatchingPatterns(resName);
+        List<XPackageRequirement> matchingPatterns = findMatchingPatterns(resName, resName.lastIndexOf('/'));
         if (matchingPatterns.isEmpty())
             return Collections.emptyList();
 
@@ -139,6 +149,14 @@ final class FallbackLoader implements LocalLoader {
         if (importedPaths.contains(path))
             return null;
 
+        // A package that was found is wired to its exporter for the current environment generation
+        DynamicCache cache = getDynamicCache();
+        Module cached = cache.exporters.get(path);
+        if (cached != null)
+            return cached;
+        if (cache.notFound.contains(resName))
+            return null;
+
         if (dynamicLoadAttempts == null)
             dynamicLoadAttempts = new ThreadLocal<Map<String, AtomicInteger>>();
 
@@ -156,13 +174,15 @@ final class FallbackLoader implements LocalLoader {
                 mapping.put(resName, recursiveDepth = new AtomicInteger());
 
             if (recursiveDepth.incrementAndGet() == 1) {
-                Module module = findInResolvedModules(resName, matchingPatterns);
+                Module module = findInResolvedModules(resName, path, matchingPatterns);
                 if (module != null && module.getIdentifier().equals(identifier) == false)
-                    return module;
+                    return cache.putExporter(path, module);
 
-                module = findInUnresolvedModules(resName, matchingPatterns);
+                module = findInUnresolvedModules(resName, path, matchingPatterns);
                 if (module != null && module.getIdentifier().equals(identifier) == false)
-                    return module;
+                    return cache.putExporter(path, module);
+
+                cache.putNotFound(resName);
             }
         } finally {
             if (removeThreadLocalMapping == true) {
@@ -176,69 +196,84 @@ final class FallbackLoader implements LocalLoader {
         return null;
     }
 
-    private List<XPackageRequirement> findMatchingPatterns(String resName) {
-
-        List<XPackageRequirement> dynamicRequirements = getDynamicPackageRequirements(hostRev);
-
-        // Dynamic imports may not be used when the package is exported
-        String pathName = VFSUtils.getPathFromClassName(resName);
-        List<XPackageCapability> packageCapabilities = getPackageCapabilities(hostRev);
-        for (XPackageCapability packageCap : packageCapabilities) {
-            String packagePath = packageCap.getPackageName().replace('.', '/');
-            if (pathName.equals(packagePath))
-                return Collections.emptyList();
+    private DynamicCache getDynamicCache() {
+        int generation = bundleManager.getEnvironmentGeneration();
+        DynamicCache cache = dynamicCache;
+        if (cache.generation != generation) {
+            cache = new DynamicCache(generation);
+            dynamicCache = cache;
         }
+        return cache;
+    }
 
-        List<XPackageRequirement> foundMatch = new ArrayList<XPackageRequirement>();
-        for (XPackageRequirement dynreq : dynamicRequirements) {
-
-            final String pattern = dynreq.getPackageName();
-            if (pattern.equals("*")) {
-                foundMatch.add(dynreq);
-                continue;
-            }
-
-            String patternPath = getPatternPath(pattern);
-            if (pathName.startsWith(patternPath)) {
-                foundMatch.add(dynreq);
-                continue;
-            }
-        }
+    private List<XPackageRequirement> findMatchingPatterns(String name, int packageLength) {
 
+        List<XPackageRequirement> foundMatch = getPatternMatcher().getMatches(name, packageLength);
         if (foundMatch.isEmpty() == false)
-            log.tracef("Found match for path [%s] with Dynamic-ImportPackage pattern: %s", resName, foundMatch);
+            log.tracef("Found match for path [%s] with Dynamic-ImportPackage pattern: %s", name, foundMatch);
         else
-            log.tracef("Class [%s] does not match Dynamic-ImportPackage patterns", resName);
+            log.tracef("Class [%s] does not match Dynamic-ImportPackage patterns", name);
 
         return foundMatch;
     }
 
-    private Module findInResolvedModules(String resName, List<XPackageRequirement> matchingPatterns) {
+    private PackagePatternMatcher<XPackageRequirement> getPatternMatcher() {
+        PackagePatternMatcher<XPackageRequirement> matcher = patternMatcher;
+        if (matcher == null) {
+            // Dynamic imports may not be used when the package is exported
+            List<String> exportedPackages = new ArrayList<String>();
+            for (XPackageCapability packageCap : getPackageCapabilities(hostRev))
+                exportedPackages.add(packageCap.getPackageName());
+
+            Map<XPackageRequirement, String> patterns = new LinkedHashMap<XPackageRequirement, String>();
+            for (XPackageRequirement dynreq : getDynamicPackageRequirements(hostRev))
+                patterns.put(dynreq, dynreq.getPackageName());
+
+            matcher = new PackagePatternMatcher<XPackageRequirement>(exportedPackages, patterns);
+            patternMatcher = matcher;
+        }
+        return matcher;
+    }
+
+    private Module findInResolvedModules(String resName, String path, List<XPackageRequirement> matchingPatterns) {
         log.tracef("Attempt to find path dynamically in resolved modules ...");
-        for (XPackageRequirement pkgreq : matchingPatterns) {
-            for (AbstractBundleState bundleState : bundleManager.getBundles(Bundle.RESOLVED | Bundle.ACTIVE)) {
-                if (bundleState.isResolved() && !bundleState.isFragment()) {
-                    ModuleIdentifier identifier = bundleState.getModuleIdentifier();
-                    Module candidate = moduleManager.getModule(identifier);
-                    if (isValidCandidate(resName, pkgreq, candidate))
-                        return candidate;
-                }
+        String packageName = path.replace('/', '.');
+        PackageExporterIndex exporterIndex = bundleManager.getPackageExporterIndex();
+        for (XPackageCapability packageCap : exporterIndex.getCapabilities(packageName)) {
+            AbstractBundleRevision brev = (AbstractBundleRevision) packageCap.getResource();
+            if (brev.isResolved() == false || matchesAny(matchingPatterns, packageCap) == false)
+                continue;
+
+            Module candidate = moduleManager.getModule(brev.getModuleIdentifier());
+            if (isValidCandidate(resName, candidate)) {
+                log.tracef("Matching package capability: %s", packageCap);
+                return candidate;
             }
         }
         return null;
     }
 
-    private Module findInUnresolvedModules(String resName, List<XPackageRequirement> matchingPatterns) {
+    private Module findInUnresolvedModules(String resName, String path, List<XPackageRequirement> matchingPatterns) {
         log.tracef("Attempt to find path dynamically in unresolved modules ...");
+        boolean resolved = false;
         for (AbstractBundleState bundleState : bundleManager.getBundles()) {
-            if (bundleState.getState() == Bundle.INSTALLED) {
-                bundleState.ensureResolved(false);
+            // Do not retry bundles that cannot be resolved until the environment changes
+            if (bundleState.getState() == Bundle.INSTALLED && bundleState.isResolutionFailed() == false) {
+                resolved |= (bundleState.ensureResolved(false) == null);
             }
         }
-        return findInResolvedModules(resName, matchingPatterns);
+        return resolved ? findInResolvedModules(resName, path, matchingPatterns) : null;
     }
 
-    private boolean isValidCandidate(String resName, XPackageRequirement pkgreq, Module candidate) {
+    private boolean matchesAny(List<XPackageRequirement> matchingPatterns, XPackageCapability packageCap) {
+        for (XPackageRequirement pkgreq : matchingPatterns) {
+            if (pkgreq.matches(packageCap))
+                return true;
+        }
+        return false;
+    }
+
+    private boolean isValidCandidate(String resName, Module candidate) {
 
         if (candidate == null)
             return false;
@@ -254,29 +289,7 @@ final class FallbackLoader implements LocalLoader {
             return false;
 
         log.tracef("Found path [%s] in %s", resName, candidate);
-        BundleRevision brev = moduleManager.getBundleRevision(candidateId);
-        XPackageCapability candidateCap = getCandidateCapability(brev, pkgreq);
-        return (candidateCap != null);
-    }
-
-    private XPackageCapability getCandidateCapability(BundleRevision brev, XPackageRequirement packageReq) {
-        for (XPackageCapability packageCap : getPackageCapabilities(brev)) {
-            if (packageReq.matches(packageCap)) {
-                log.tracef("Matching package capability: %s", packageCap);
-                return packageCap;
-            }
-        }
-        return null;
-    }
-
-    private String getPatternPath(final String pattern) {
-
-        String patternPath = pattern;
-        if (pattern.endsWith(".*"))
-            patternPath = pattern.substring(0, pattern.length() - 2);
-
-        patternPath = patternPath.replace('.', '/');
-        return patternPath;
+        return true;
     }
 
     private List<XPackageCapability> getPackageCapabilities(BundleRevision brev) {
@@ -298,4 +311,29 @@ final class FallbackLoader implements LocalLoader {
         }
         return result;
     }
+
+    /**
+     * The results of dynamic lookups for one generation of the bundle environment
+     */
+    static final class DynamicCache {
+
+        final int generation;
+        final ConcurrentMap<String, Module> exporters = new ConcurrentHashMap<String, Module>();
+        final Set<String> notFound = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        DynamicCache(int generation) {
+            this.generation = generation;
+        }
+
+        Module putExporter(String path, Module module) {
+            Module existing = exporters.putIfAbsent(path, module);
+            return existing != null ? existing : module;
+        }
+
+        void putNotFound(String resName) {
+            if (notFound.size() >= MAX_NOT_FOUND)
+                notFound.clear();
+            notFound.add(resName);
+        }
+    }
 }
@@ -0,0 +1,86 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.osgi.framework.InvalidSyntaxException;
+
+import java.util.Iterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * A bounded cache of {@link CompiledFilter}s keyed by filter string.
+ *
+ * When the cache is full an arbitrary entry is evicted. Filters are immutable, so an evicted filter that is still
+ * referenced elsewhere remains valid.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class FilterCache {
+
+    /** The default maximum number of cached filters */
+    static final int DEFAULT_CACHE_SIZE = 256;
+
+    private final ConcurrentMap<String, CompiledFilter> filters = new ConcurrentHashMap<String, CompiledFilter>();
+    private final int maxSize;
+
+    FilterCache(int maxSize) {
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the compiled filter for the given filter string.
+     *
+     * @throws InvalidSyntaxException if the filter string contains an invalid filter
+     * @throws NullPointerException if the filter string is null
+     */
+    CompiledFilter getFilter(String filterstr) throws InvalidSyntaxException {
+        CompiledFilter filter = filters.get(filterstr);
+        if (filter == null) {
+            filter = CompiledFilter.create(filterstr);
+            if (maxSize > 0) {
+                evictIfFull();
+                CompiledFilter existing = filters.putIfAbsent(filterstr, filter);
+                if (existing != null)
+                    filter = existing;
+            }
+        }
+        return filter;
+    }
+
+    int size() {
+        return filters.size();
+    }
+
+    void clear() {
+        filters.clear();
+    }
+
+    private void evictIfFull() {
+        Iterator<String> it = filters.keySet().iterator();
+        while (filters.size() >= maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+    }
+}
@@ -29,6 +29,7 @@ import org.jboss.msc.service.StartContext;
 import org.jboss.msc.service.StartException;
 import org.jboss.msc.service.StopContext;
 import org.jboss.msc.value.InjectedValue;
+import org.jboss.osgi.framework.BatchBundleListener;
 import org.jboss.osgi.framework.util.NoFilter;
 import org.jboss.osgi.framework.util.RemoveOnlyCollection;
 import org.jboss.osgi.spi.ConstantsHelper;
@@ -36,27 +37,29 @@ import org.osgi.framework.AllServiceListener;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleListener;
-import org.osgi.framework.Constants;
 import org.osgi.framework.Filter;
 import org.osgi.framework.FrameworkEvent;
 import org.osgi.framework.FrameworkListener;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceListener;
-import org.osgi.framework.ServiceReference;
 import org.osgi.framework.SynchronousBundleListener;
 import org.osgi.framework.hooks.service.EventHook;
 import org.osgi.framework.hooks.service.ListenerHook;
 import org.osgi.framework.hooks.service.ListenerHook.ListenerInfo;
 
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import javax.management.StandardMBean;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.Array;
 import java.security.AccessControlContext;
 import java.security.AccessController;
 import java.util.ArrayList;
-import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -64,9 +67,6 @@ import java.util.Map.Entry;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.CopyOnWriteArrayList;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
-import java.util.concurrent.ThreadFactory;
 
 /**
  * A plugin that manages {@link FrameworkListener}, {@link BundleListener}, {@link ServiceListener} and their associated
@@ -89,15 +89,30 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
     private final Map<AbstractBundleState, List<FrameworkListener>> frameworkListeners = new ConcurrentHashMap<AbstractBundleState, List<FrameworkListener>>();
     /** The service listeners */
     private final Map<AbstractBundleState, List<ServiceListenerRegistration>> serviceListeners = new ConcurrentHashMap<AbstractBundleState, List<ServiceListenerRegistration>>();
+    /** The service listeners by the objectClass values of their filters */
+    private final ServiceListenerIndex serviceListenerIndex = new ServiceListenerIndex();
+    /** The flattened bundle listeners, rebuilt when a listener is added or removed */
+    private volatile BundleListener[] bundleListenerSnapshot = new BundleListener[0];
+    /** The flattened framework listeners, rebuilt when a listener is added or removed */
+    private volatile FrameworkListener[] frameworkListenerSnapshot = new FrameworkListener[0];
 
     /** The set of bundleState events that are delivered to an (asynchronous) BundleListener */
     private Set<Integer> asyncBundleEvents = new HashSet<Integer>();
     /** The set of events that are logged at INFO level */
     private Set<String> infoEvents = new HashSet<String>();
 
-    private final ExecutorService bundleEventExecutor;
-    private final ExecutorService frameworkEventExecutor;
-    
+    /** The asynchronous bundle events of the bulk operation that runs on the current thread */
+    private final ThreadLocal<BundleEventBatch> bundleEventBatch = new ThreadLocal<BundleEventBatch>();
+
+    // The dispatchers of asynchronous events
+    private EventDispatcher bundleEventDispatcher;
+    private EventDispatcher frameworkEventDispatcher;
+    // The listener invocation metrics and their management name
+    private ListenerMetrics listenerMetrics;
+    private ObjectName listenerMetricsName;
+    // The cache of compiled filters
+    private FilterCache filterCache;
+
     static void addService(ServiceTarget serviceTarget) {
         FrameworkEventsPlugin service = new FrameworkEventsPlugin();
         ServiceBuilder<FrameworkEventsPlugin> builder = serviceTarget.addService(InternalServices.FRAMEWORK_EVENTS_PLUGIN, service);
@@ -123,38 +138,43 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         infoEvents.add(ConstantsHelper.bundleEvent(BundleEvent.STARTED));
         infoEvents.add(ConstantsHelper.bundleEvent(BundleEvent.STOPPED));
         infoEvents.add(ConstantsHelper.bundleEvent(BundleEvent.UNINSTALLED));
-
-        bundleEventExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable run) {
-                Thread thread = new Thread(run);
-                thread.setName("OSGi BundleEvent Thread");
-                thread.setDaemon(true);
-                return thread;
-            }
-        });
-        frameworkEventExecutor = Executors.newSingleThreadExecutor(new ThreadFactory() {
-            @Override
-            public Thread newThread(Runnable run) {
-                Thread thread = new Thread(run);
-                thread.setName("OSGi FrameworkEvent Thread");
-                thread.setDaemon(true);
-                return thread;
-            }
-        });
     }
 
     @Override
     public void start(StartContext context) throws StartException {
         super.start(context);
+        BundleManager bundleManager = injectedBundleManager.getValue();
+        int cacheSize = bundleManager.getIntegerProperty(org.jboss.osgi.framework.Constants.PROPERTY_FILTER_CACHE_SIZE, FilterCache.DEFAULT_CACHE_SIZE);
+        filterCache = new FilterCache(cacheSize);
+        int threads = bundleManager.getIntegerProperty(org.jboss.osgi.framework.Constants.PROPERTY_EVENT_DISPATCHER_THREADS, EventDispatcher.DEFAULT_THREADS);
+        int backlog = bundleManager.getIntegerProperty(org.jboss.osgi.framework.Constants.PROPERTY_EVENT_DISPATCHER_BACKLOG, EventDispatcher.DEFAULT_BACKLOG);
+        bundleEventDispatcher = new EventDispatcher("OSGi BundleEvent", threads, backlog);
+        frameworkEventDispatcher = new EventDispatcher("OSGi FrameworkEvent", threads, backlog);
+        boolean metricsEnabled = bundleManager.getBooleanProperty(org.jboss.osgi.framework.Constants.PROPERTY_LISTENER_METRICS, false);
+        int slowThreshold = bundleManager.getIntegerProperty(org.jboss.osgi.framework.Constants.PROPERTY_LISTENER_SLOW_THRESHOLD, (int) ListenerMetrics.DEFAULT_SLOW_THRESHOLD);
+        listenerMetrics = new ListenerMetrics(bundleEventDispatcher, frameworkEventDispatcher, metricsEnabled, slowThreshold);
+        registerListenerMetrics(bundleManager);
     }
 
     @Override
     public void stop(StopContext context) {
         super.stop(context);
-        bundleListeners.clear();
-        serviceListeners.clear();
-        frameworkListeners.clear();
+        synchronized (bundleListeners) {
+            bundleListeners.clear();
+            bundleListenerSnapshot = new BundleListener[0];
+        }
+        synchronized (serviceListeners) {
+            serviceListeners.clear();
+            serviceListenerIndex.clear();
+        }
+        synchronized (frameworkListeners) {
+            frameworkListeners.clear();
+            frameworkListenerSnapshot = new FrameworkListener[0];
+        }
+        filterCache.clear();
+        bundleEventDispatcher.shutdown();
+        frameworkEventDispatcher.shutdown();
+        unregisterListenerMetrics();
     }
 
     @Override
@@ -162,6 +182,15 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         return this;
     }
 
+    /**
+     * Get the compiled filter for the given filter string
+     *
+     * @throws InvalidSyntaxException if the filter string contains an invalid filter
+     */
+    CompiledFilter createFilter(String filterstr) throws InvalidSyntaxException {
+        return filterCache.getFilter(filterstr);
+    }
+
     void addBundleListener(final AbstractBundleState bundleState, final BundleListener listener) {
         if (listener == null)
             throw new IllegalArgumentException("Null listener");
@@ -172,8 +201,10 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
                 listeners = new CopyOnWriteArrayList<BundleListener>();
                 bundleListeners.put(bundleState, listeners);
             }
-            if (listeners.contains(listener) == false)
+            if (listeners.contains(listener) == false) {
                 listeners.add(listener);
+                bundleListenerSnapshot = flatten(bundleListeners, BundleListener.class);
+            }
         }
     }
 
@@ -184,17 +215,20 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         synchronized (bundleListeners) {
             List<BundleListener> listeners = bundleListeners.get(bundleState);
             if (listeners != null) {
-                if (listeners.size() > 1)
-                    listeners.remove(listener);
-                else
+                if (listeners.size() > 1) {
+                    if (listeners.remove(listener))
+                        bundleListenerSnapshot = flatten(bundleListeners, BundleListener.class);
+                } else {
                     removeBundleListeners(bundleState);
+                }
             }
         }
     }
 
     void removeBundleListeners(final AbstractBundleState bundleState) {
         synchronized (bundleListeners) {
-            bundleListeners.remove(bundleState);
+            if (bundleListeners.remove(bundleState) != null)
+                bundleListenerSnapshot = flatten(bundleListeners, BundleListener.class);
         }
     }
 
@@ -208,8 +242,10 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
                 listeners = new CopyOnWriteArrayList<FrameworkListener>();
                 frameworkListeners.put(bundleState, listeners);
             }
-            if (listeners.contains(listener) == false)
+            if (listeners.contains(listener) == false) {
                 listeners.add(listener);
+                frameworkListenerSnapshot = flatten(frameworkListeners, FrameworkListener.class);
+            }
         }
     }
 
@@ -220,20 +256,33 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         synchronized (frameworkListeners) {
             List<FrameworkListener> listeners = frameworkListeners.get(bundleState);
             if (listeners != null) {
-                if (listeners.size() > 1)
-                    listeners.remove(listener);
-                else
+                if (listeners.size() > 1) {
+                    if (listeners.remove(listener))
+                        frameworkListenerSnapshot = flatten(frameworkListeners, FrameworkListener.class);
+                } else {
                     removeFrameworkListeners(bundleState);
+                }
             }
         }
     }
 
     void removeFrameworkListeners(final AbstractBundleState bundleState) {
         synchronized (frameworkListeners) {
-            frameworkListeners.remove(bundleState);
+            if (frameworkListeners.remove(bundleState) != null)
+                frameworkListenerSnapshot = flatten(frameworkListeners, FrameworkListener.class);
         }
     }
 
+    // Must be called while holding the lock of the given listener map
+    private static <T> T[] flatten(Map<AbstractBundleState, List<T>> listenerMap, Class<T> type) {
+        List<T> result = new ArrayList<T>();
+        for (List<T> listeners : listenerMap.values())
+            result.addAll(listeners);
+        @SuppressWarnings("unchecked")
+        T[] array = (T[]) Array.newInstance(type, result.size());
+        return result.toArray(array);
+    }
+
     void addServiceListener(final AbstractBundleState bundleState, final ServiceListener listener, final String filterstr) throws InvalidSyntaxException {
         if (listener == null)
             throw new IllegalArgumentException("Null listener");
@@ -250,7 +299,7 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             removeServiceListener(bundleState, listener);
 
             // Create the new listener registration
-            Filter filter = (filterstr != null ? FrameworkUtil.createFilter(filterstr) : NoFilter.INSTANCE);
+            Filter filter = (filterstr != null ? createFilter(filterstr) : NoFilter.INSTANCE);
             ServiceListenerRegistration slreg = new ServiceListenerRegistration(bundleState, listener, filter);
 
             // The {@link ListenerHook} added method is called to provide the hook implementation with information on newly
@@ -266,6 +315,7 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
 
             // Add the listener to the list
             listeners.add(slreg);
+            serviceListenerIndex.add(slreg);
         }
     }
 
@@ -293,6 +343,7 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
                 int index = listeners.indexOf(slreg);
                 if (index >= 0) {
                     slreg = listeners.remove(index);
+                    serviceListenerIndex.remove(slreg);
 
                     // The {@link ListenerHook} 'removed' method is called to provide the hook implementation with information
                     // on newly removed service listeners.
@@ -314,7 +365,11 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
     void removeServiceListeners(final AbstractBundleState bundleState) {
         synchronized (serviceListeners) {
             Collection<ListenerInfo> listenerInfos = getServiceListenerInfos(bundleState);
-            serviceListeners.remove(bundleState);
+            List<ServiceListenerRegistration> listeners = serviceListeners.remove(bundleState);
+            if (listeners != null) {
+                for (ServiceListenerRegistration slreg : listeners)
+                    serviceListenerIndex.remove(slreg);
+            }
 
             // The {@link ListenerHook} 'removed' method is called to provide the hook implementation with information on newly
             // removed service listeners.
@@ -330,38 +385,21 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
     }
 
     private List<ListenerHook> getServiceListenerHooks() {
-
         BundleManager bundleManager = injectedBundleManager.getValue();
         if (bundleManager.isFrameworkActive() == false)
             return Collections.emptyList();
 
-        BundleContext context = injectedSystemContext.getValue();
-        ServiceReference[] srefs = null;
-        try {
-            srefs = context.getServiceReferences(ListenerHook.class.getName(), null);
-        } catch (InvalidSyntaxException e) {
-            // ignore
-        }
-        if (srefs == null)
-            return Collections.emptyList();
-
-        List<ListenerHook> hooks = new ArrayList<ListenerHook>();
-        for (ServiceReference sref : srefs)
-            hooks.add((ListenerHook) context.getService(sref));
+        return getHookRegistry().getListenerHooks();
+    }
 
-        return Collections.unmodifiableList(hooks);
+    private HookRegistry getHookRegistry() {
+        BundleManager bundleManager = injectedBundleManager.getValue();
+        return bundleManager.getFrameworkState().getServiceManagerPlugin().getHookRegistry();
     }
 
     void fireBundleEvent(final AbstractBundleState bundleState, final int type) {
         // Get a snapshot of the current listeners
-        final List<BundleListener> listeners = new ArrayList<BundleListener>();
-        synchronized (bundleListeners) {
-            for (Entry<AbstractBundleState, List<BundleListener>> entry : bundleListeners.entrySet()) {
-                for (BundleListener listener : entry.getValue()) {
-                    listeners.add(listener);
-                }
-            }
-        }
+        final BundleListener[] listeners = bundleListenerSnapshot;
 
         // Expose the bundleState wrapper not the state itself
         final BundleEvent event = new BundleEventImpl(type, bundleState);
@@ -375,51 +413,104 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             return;
 
         // Nobody is interested
-        if (listeners.isEmpty())
+        if (listeners.length == 0)
             return;
 
         // Synchronous listeners first
         for (BundleListener listener : listeners) {
+            if (listener instanceof SynchronousBundleListener == false)
+                continue;
+
+            long startNanos = listenerMetrics.start(true);
             try {
-                if (listener instanceof SynchronousBundleListener)
-                    listener.bundleChanged(event);
+                listener.bundleChanged(event);
             } catch (Throwable th) {
                 log.warnf(th, "Error while firing %s for bundleState: %s", typeName, bundleState);
+            } finally {
+                listenerMetrics.listenerCalled(listener, startNanos, true, typeName);
             }
         }
 
-        Runnable runnable = new Runnable() {
+        // BundleListeners are called with a BundleEvent object when a bundleState has been
+        // installed, resolved, started, stopped, updated, unresolved, or uninstalled
+        if (asyncBundleEvents.contains(type) == false)
+            return;
 
-            public void run() {
-                // BundleListeners are called with a BundleEvent object when a bundleState has been
-                // installed, resolved, started, stopped, updated, unresolved, or uninstalled
-                if (asyncBundleEvents.contains(type)) {
-                    for (BundleListener listener : listeners) {
-                        try {
-                            if (listener instanceof SynchronousBundleListener == false)
-                                listener.bundleChanged(event);
-                        } catch (Throwable th) {
-                            log.warnf(th, "Error while firing %s for bundleState: ", typeName, bundleState);
-                        }
-                    }
+        // During a bulk operation the events of its thread are collected and delivered as one batch per listener
+        BundleEventBatch batch = bundleEventBatch.get();
+        if (batch != null) {
+            for (BundleListener listener : listeners) {
+                if (listener instanceof SynchronousBundleListener)
+                    continue;
+
+                List<BundleEvent> events = batch.events.get(listener);
+                if (events == null) {
+                    events = new ArrayList<BundleEvent>();
+                    batch.events.put(listener, events);
                 }
+                events.add(event);
             }
-        };
+            return;
+        }
+
+        // Every listener receives its events in order, different listeners are called in parallel
+        for (final BundleListener listener : listeners) {
+            if (listener instanceof SynchronousBundleListener)
+                continue;
 
-        // Fire the event in a runnable
-        bundleEventExecutor.execute(runnable);
+            Runnable runnable = new Runnable() {
+
+                public void run() {
+                    long startNanos = listenerMetrics.start(false);
+                    try {
+                        listener.bundleChanged(event);
+                    } catch (Throwable th) {
+                        log.warnf(th, "Error while firing %s for bundleState: %s", typeName, bundleState);
+                    } finally {
+                        listenerMetrics.listenerCalled(listener, startNanos, false, typeName);
+                    }
+                }
+            };
+            bundleEventDispatcher.dispatch(listener, runnable);
+        }
+    }
+
+    /**
+     * Begin a bulk lifecycle operation on the current thread. Until the matching call to {@link #endBundleEventBatch()},
+     * the asynchronous bundle events that are fired by this thread are collected. Events that are fired by other threads
+     * are delivered as usual. Batches may be nested.
+     */
+    void beginBundleEventBatch() {
+        BundleEventBatch batch = bundleEventBatch.get();
+        if (batch == null) {
+            batch = new BundleEventBatch();
+            bundleEventBatch.set(batch);
+        }
+        batch.depth++;
+    }
+
+    /**
+     * End a bulk lifecycle operation on the current thread. When the outermost batch ends, every listener receives its
+     * collected events in a single delivery. It is queued before any later event of this thread.
+     */
+    void endBundleEventBatch() {
+        BundleEventBatch batch = bundleEventBatch.get();
+        if (batch == null)
+            return;
+        if (--batch.depth > 0)
+            return;
+
+        bundleEventBatch.remove();
+        for (Entry<BundleListener, List<BundleEvent>> entry : batch.events.entrySet()) {
+            BundleListener listener = entry.getKey();
+            Runnable runnable = new BundleEventBatchDelivery(listener, entry.getValue());
+            bundleEventDispatcher.dispatch(listener, runnable);
+        }
     }
 
     void fireFrameworkEvent(final AbstractBundleState bundleState, final int type, final Throwable th) {
         // Get a snapshot of the current listeners
-        final ArrayList<FrameworkListener> listeners = new ArrayList<FrameworkListener>();
-        synchronized (frameworkListeners) {
-            for (Entry<AbstractBundleState, List<FrameworkListener>> entry : frameworkListeners.entrySet()) {
-                for (FrameworkListener listener : entry.getValue()) {
-                    listeners.add(listener);
-                }
-            }
-        }
+        final FrameworkListener[] listeners = frameworkListenerSnapshot;
 
         // Expose the wrapper not the state itself
         final FrameworkEvent event = new FrameworkEventImpl(type, bundleState, th);
@@ -442,14 +533,15 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             return;
 
         // Nobody is interested
-        if (listeners.isEmpty())
+        if (listeners.length == 0)
             return;
 
-        Runnable runnable = new Runnable() {
+        // Every listener receives its events in order, different listeners are called in parallel
+        for (final FrameworkListener listener : listeners) {
+            Runnable runnable = new Runnable() {
 
-            public void run() {
-                // Call the listeners
-                for (FrameworkListener listener : listeners) {
+                public void run() {
+                    long startNanos = listenerMetrics.start(false);
                     try {
                         listener.frameworkEvent(event);
                     } catch (RuntimeException ex) {
@@ -463,28 +555,63 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
                         }
                     } catch (Throwable th) {
                         log.warnf(th, "Error while firing %s for framework", typeName);
+                    } finally {
+                        listenerMetrics.listenerCalled(listener, startNanos, false, typeName);
                     }
                 }
-            }
-        };
+            };
+            frameworkEventDispatcher.dispatch(listener, runnable);
+        }
+    }
 
-        // Fire the event in a runnable
-        frameworkEventExecutor.execute(runnable);
+    /**
+     * Get the metrics of the listener invocations.
+     */
+    ListenerMetrics getListenerMetrics() {
+        return listenerMetrics;
     }
 
-    void fireServiceEvent(final AbstractBundleState bundleState, int type, final ServiceState serviceState) {
+    private void registerListenerMetrics(BundleManager bundleManager) {
+        String frameworkId = Integer.toHexString(System.identityHashCode(bundleManager));
+        try {
+            ObjectName objectName = new ObjectName("jboss.osgi:service=ListenerMetrics,framework=" + frameworkId);
+            MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+            mbeanServer.registerMBean(new StandardMBean(listenerMetrics, ListenerMetricsMBean.class), objectName);
+            listenerMetricsName = objectName;
+        } catch (Exception ex) {
+            log.debugf(ex, "Cannot register listener metrics");
+        }
+    }
 
-        // Get a snapshot of the current listeners
-        List<ServiceListenerRegistration> listenerRegs = new ArrayList<ServiceListenerRegistration>();
-        synchronized (serviceListeners) {
-            for (Entry<AbstractBundleState, List<ServiceListenerRegistration>> entry : serviceListeners.entrySet()) {
-                for (ServiceListenerRegistration listener : entry.getValue()) {
-                    BundleContext context = listener.getBundleContext();
-                    if (context != null)
-                        listenerRegs.add(listener);
-                }
+    private void unregisterListenerMetrics() {
+        if (listenerMetricsName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(listenerMetricsName);
+            } catch (Exception ex) {
+                log.debugf(ex, "Cannot unregister listener metrics");
             }
+            listenerMetricsName = null;
         }
+    }
+
+    /**
+     * Get the dispatcher of asynchronous bundle events.
+     */
+    EventDispatcher getBundleEventDispatcher() {
+        return bundleEventDispatcher;
+    }
+
+    /**
+     * Get the dispatcher of framework events.
+     */
+    EventDispatcher getFrameworkEventDispatcher() {
+        return frameworkEventDispatcher;
+    }
+
+    void fireServiceEvent(final AbstractBundleState bundleState, int type, final ServiceState serviceState) {
+
+        // Get a snapshot of the current listeners that can match the service
+        ServiceListenerRegistration[] listenerRegs = serviceListenerIndex.getListeners(serviceState.getClassNames());
 
         // Expose the wrapper not the state itself
         ServiceEvent event = new ServiceEventImpl(type, serviceState);
@@ -497,21 +624,38 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             return;
 
         // Call the registered event hooks
-        BundleContext systemContext = injectedSystemContext.getValue();
-        listenerRegs = processEventHooks(systemContext, listenerRegs, event);
+        List<EventHook> eventHooks = getHookRegistry().getEventHooks();
+        if (eventHooks.isEmpty() == false) {
+            List<ServiceListenerRegistration> listeners = new ArrayList<ServiceListenerRegistration>(listenerRegs.length);
+            for (ServiceListenerRegistration listenerReg : listenerRegs) {
+                if (listenerReg.getBundleContext() != null)
+                    listeners.add(listenerReg);
+            }
+            listeners = processEventHooks(eventHooks, listeners, event);
+            listenerRegs = listeners.toArray(new ServiceListenerRegistration[listeners.size()]);
+        }
 
         // Nobody is interested
-        if (listenerRegs.isEmpty())
+        if (listenerRegs.length == 0)
             return;
 
+        // Match all listeners against the same properties. The previous properties are only needed for MODIFIED_ENDMATCH
+        String[] clazzes = serviceState.getClassNames();
+        ServiceProperties properties = serviceState.getProperties();
+        ServiceProperties prevProperties = (type == ServiceEvent.MODIFIED ? serviceState.getPreviousProperties() : null);
+        ServiceEvent endMatchEvent = null;
+
         // Call the listeners. All service events are synchronously delivered
         for (ServiceListenerRegistration listenerReg : listenerRegs) {
 
+            // Skip listeners of bundles that are no longer valid
+            if (listenerReg.getBundleContext() == null)
+                continue;
+
             // Service events must only be delivered to event listeners which can validly cast the event
             if (listenerReg.isAllServiceListener() == false) {
                 AbstractBundleState owner = listenerReg.getBundleState();
                 boolean assignableToOwner = true;
-                String[] clazzes = (String[]) serviceState.getProperty(Constants.OBJECTCLASS);
                 for (String clazz : clazzes) {
                     if (serviceState.isAssignableTo(owner, clazz) == false) {
                         assignableToOwner = false;
@@ -523,19 +667,27 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             }
 
             try {
-                String filterstr = listenerReg.filter.toString();
-                if (listenerReg.filter.match(serviceState)) {
-                    listenerReg.listener.serviceChanged(event);
+                ServiceEvent listenerEvent = null;
+                if (listenerReg.match(properties)) {
+                    listenerEvent = event;
                 }
 
                 // The MODIFIED_ENDMATCH event is synchronously delivered after the service properties have been modified.
                 // This event is only delivered to listeners which were added with a non-null filter where
                 // the filter matched the service properties prior to the modification but the filter does
                 // not match the modified service properties.
-                else if (filterstr != null && ServiceEvent.MODIFIED == event.getType()) {
-                    if (listenerReg.filter.match(serviceState.getPreviousProperties())) {
-                        event = new ServiceEventImpl(ServiceEvent.MODIFIED_ENDMATCH, serviceState);
-                        listenerReg.listener.serviceChanged(event);
+                else if (prevProperties != null && listenerReg.hasFilter() && listenerReg.match(prevProperties)) {
+                    if (endMatchEvent == null)
+                        endMatchEvent = new ServiceEventImpl(ServiceEvent.MODIFIED_ENDMATCH, serviceState);
+                    listenerEvent = endMatchEvent;
+                }
+
+                if (listenerEvent != null) {
+                    long startNanos = listenerMetrics.start(true);
+                    try {
+                        listenerReg.listener.serviceChanged(listenerEvent);
+                    } finally {
+                        listenerMetrics.listenerCalled(listenerReg.listener, startNanos, true, typeName);
                     }
                 }
             } catch (Throwable th) {
@@ -544,7 +696,7 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         }
     }
 
-    private List<ServiceListenerRegistration> processEventHooks(BundleContext systemContext, List<ServiceListenerRegistration> listeners, final ServiceEvent event) {
+    private List<ServiceListenerRegistration> processEventHooks(List<EventHook> eventHooks, List<ServiceListenerRegistration> listeners, final ServiceEvent event) {
         // Collect the BundleContexts
         Collection<BundleContext> contexts = new HashSet<BundleContext>();
         for (ServiceListenerRegistration listener : listeners) {
@@ -555,7 +707,6 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         contexts = new RemoveOnlyCollection<BundleContext>(contexts);
 
         // Call the registered event hooks
-        List<EventHook> eventHooks = getEventHooks(systemContext);
         for (EventHook hook : eventHooks) {
             try {
                 hook.event(event, contexts);
@@ -576,24 +727,49 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         return listeners;
     }
 
-    private List<EventHook> getEventHooks(BundleContext systemContext) {
-        List<EventHook> hooks = new ArrayList<EventHook>();
-        ServiceReference[] srefs = null;
-        try {
-            srefs = systemContext.getServiceReferences(EventHook.class.getName(), null);
-        } catch (InvalidSyntaxException e) {
-            // ignore
+    /**
+     * Delivers a batch of bundle events to one listener
+     */
+    static final class BundleEventBatch {
+
+        final Map<BundleListener, List<BundleEvent>> events = new IdentityHashMap<BundleListener, List<BundleEvent>>();
+        int depth;
+    }
+
+    final class BundleEventBatchDelivery implements Runnable {
+
+        private final BundleListener listener;
+        private final List<BundleEvent> events;
+
+        BundleEventBatchDelivery(BundleListener listener, List<BundleEvent> events) {
+            this.listener = listener;
+            this.events = Collections.unmodifiableList(events);
         }
-        if (srefs != null) {
-            // The calling order of the hooks is defined by the reversed compareTo ordering of their Service
-            // Reference objects. That is, the service with the highest ranking number is called first.
-            List<ServiceReference> sortedRefs = new ArrayList<ServiceReference>(Arrays.asList(srefs));
-            Collections.reverse(sortedRefs);
 
-            for (ServiceReference sref : sortedRefs)
-                hooks.add((EventHook) systemContext.getService(sref));
+        public void run() {
+            if (listener instanceof BatchBundleListener) {
+                long startNanos = listenerMetrics.start(false);
+                try {
+                    ((BatchBundleListener) listener).bundlesChanged(events);
+                } catch (Throwable th) {
+                    log.warnf(th, "Error while firing %d bundle events to: %s", events.size(), listener);
+                } finally {
+                    listenerMetrics.listenerCalled(listener, startNanos, false, "BundleEvent batch");
+                }
+                return;
+            }
+            for (BundleEvent event : events) {
+                String typeName = ConstantsHelper.bundleEvent(event.getType());
+                long startNanos = listenerMetrics.start(false);
+                try {
+                    listener.bundleChanged(event);
+                } catch (Throwable th) {
+                    log.warnf(th, "Error while firing %s for bundleState: %s", typeName, event.getBundle());
+                } finally {
+                    listenerMetrics.listenerCalled(listener, startNanos, false, typeName);
+                }
+            }
         }
-        return hooks;
     }
 
     /**
@@ -604,6 +780,9 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         private AbstractBundleState bundleState;
         private ServiceListener listener;
         private Filter filter;
+        private CompiledFilter compiledFilter;
+        private String filterString;
+        private String[] objectClasses;
         private ListenerInfo info;
 
         // Any access control context
@@ -620,6 +799,9 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             this.bundleState = bundleState;
             this.listener = listener;
             this.filter = filter;
+            this.compiledFilter = (filter instanceof CompiledFilter ? (CompiledFilter) filter : null);
+            this.filterString = (filter != NoFilter.INSTANCE ? filter.toString() : null);
+            this.objectClasses = (compiledFilter != null ? compiledFilter.getObjectClasses() : null);
             this.info = new ListenerInfoImpl(this);
 
             if (System.getSecurityManager() != null)
@@ -638,6 +820,32 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
             return info;
         }
 
+        /**
+         * True if the listener was added with a non-null filter
+         */
+        boolean hasFilter() {
+            return filterString != null;
+        }
+
+        /**
+         * Match the filter against the given service properties.
+         */
+        boolean match(ServiceProperties properties) {
+            if (filterString == null)
+                return true;
+            if (compiledFilter != null)
+                return compiledFilter.match(properties);
+
+            return filter.match(properties.toDictionary());
+        }
+
+        /**
+         * Get the objectClass values of which a matching service must have one, or null if the filter does not restrict them.
+         */
+        String[] getObjectClasses() {
+            return objectClasses;
+        }
+
         boolean isAllServiceListener() {
             return (listener instanceof AllServiceListener);
         }
@@ -660,7 +868,7 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         @Override
         public String toString() {
             String className = listener.getClass().getName();
-            return "ServiceListener[" + bundleState + "," + className + "," + filter + "]";
+            return "ServiceListener[" + bundleState + "," + className + "," + filterString + "]";
         }
     }
 
@@ -674,7 +882,7 @@ final class FrameworkEventsPlugin extends AbstractPluginService<FrameworkEventsP
         ListenerInfoImpl(final ServiceListenerRegistration slreg) {
             this.context = slreg.bundleState.getBundleContext();
             this.listener = slreg.listener;
-            this.filter = slreg.filter.toString();
+            this.filter = slreg.filterString;
         }
 
         @Override
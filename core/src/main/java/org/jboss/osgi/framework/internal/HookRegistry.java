@@ -0,0 +1,178 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.logging.Logger;
+import org.osgi.framework.hooks.service.EventHook;
+import org.osgi.framework.hooks.service.FindHook;
+import org.osgi.framework.hooks.service.ListenerHook;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * A registry of the service hooks.
+ *
+ * For every hook type it maintains an immutable snapshot of the hook services, ordered by the reverse compareTo ordering of
+ * their service references. That is, the hook with the highest ranking comes first. A snapshot is only rebuilt when a hook
+ * service is registered, modified or unregistered. The hook objects are obtained once on behalf of the system bundle.
+ *
+ * No lock is held while hook objects are obtained, because that may call into a service factory. A rebuilt snapshot is
+ * only published if no other snapshot was published in the meantime. Otherwise the rebuild is repeated, so that a
+ * snapshot that is based on an older state of the registry never replaces a newer one.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class HookRegistry {
+
+    // Provide logging
+    private static final Logger log = Logger.getLogger(HookRegistry.class);
+
+    static final String FIND_HOOK = FindHook.class.getName();
+    static final String EVENT_HOOK = EventHook.class.getName();
+    static final String LISTENER_HOOK = ListenerHook.class.getName();
+
+    private final ServiceManagerPlugin serviceManager;
+    private final ServiceRegistry serviceRegistry;
+
+    private final AtomicReference<Snapshot<FindHook>> findHooks = new AtomicReference<Snapshot<FindHook>>(Snapshot.<FindHook> empty());
+    private final AtomicReference<Snapshot<EventHook>> eventHooks = new AtomicReference<Snapshot<EventHook>>(Snapshot.<EventHook> empty());
+    private final AtomicReference<Snapshot<ListenerHook>> listenerHooks = new AtomicReference<Snapshot<ListenerHook>>(Snapshot.<ListenerHook> empty());
+
+    HookRegistry(ServiceManagerPlugin serviceManager, ServiceRegistry serviceRegistry) {
+        if (serviceManager == null)
+            throw new IllegalArgumentException("Null serviceManager");
+        if (serviceRegistry == null)
+            throw new IllegalArgumentException("Null serviceRegistry");
+        this.serviceManager = serviceManager;
+        this.serviceRegistry = serviceRegistry;
+    }
+
+    List<FindHook> getFindHooks() {
+        return findHooks.get().hooks;
+    }
+
+    List<EventHook> getEventHooks() {
+        return eventHooks.get().hooks;
+    }
+
+    List<ListenerHook> getListenerHooks() {
+        return listenerHooks.get().hooks;
+    }
+
+    /**
+     * Rebuild the affected snapshots after the given service was registered, modified or unregistered.
+     * This must be called after the service registry has been updated.
+     */
+    void serviceChanged(ServiceState serviceState) {
+        servicesChanged(Collections.singletonList(serviceState));
+    }
+
+    /**
+     * Rebuild the affected snapshots once after the given services were registered or unregistered.
+     */
+    void servicesChanged(List<ServiceState> serviceStates) {
+        boolean findHook = false, eventHook = false, listenerHook = false;
+        for (ServiceState serviceState : serviceStates) {
+            findHook |= serviceState.hasClassName(FIND_HOOK);
+            eventHook |= serviceState.hasClassName(EVENT_HOOK);
+            listenerHook |= serviceState.hasClassName(LISTENER_HOOK);
+        }
+        if (findHook)
+            rebuild(FIND_HOOK, FindHook.class, findHooks);
+        if (eventHook)
+            rebuild(EVENT_HOOK, EventHook.class, eventHooks);
+        if (listenerHook)
+            rebuild(LISTENER_HOOK, ListenerHook.class, listenerHooks);
+    }
+
+    void clear() {
+        findHooks.set(Snapshot.<FindHook> empty());
+        eventHooks.set(Snapshot.<EventHook> empty());
+        listenerHooks.set(Snapshot.<ListenerHook> empty());
+    }
+
+    private <T> void rebuild(String className, Class<T> type, AtomicReference<Snapshot<T>> snapshot) {
+        // The hook objects that were obtained by an attempt that lost the race are reused by the next one
+        Map<ServiceState, T> obtainedHooks = new IdentityHashMap<ServiceState, T>();
+        while (true) {
+            Snapshot<T> previous = snapshot.get();
+            Snapshot<T> next = build(className, type, previous, obtainedHooks);
+            if (snapshot.compareAndSet(previous, next))
+                return;
+        }
+    }
+
+    private <T> Snapshot<T> build(String className, Class<T> type, Snapshot<T> previous, Map<ServiceState, T> obtainedHooks) {
+        ServiceState[] serviceStates = serviceRegistry.getServices(className);
+        if (serviceStates.length == 0)
+            return Snapshot.empty();
+
+        // Reuse the hook objects of the services that are still registered
+        for (int i = 0; i < previous.serviceStates.length; i++)
+            obtainedHooks.put(previous.serviceStates[i], previous.hooks.get(i));
+
+        // The registry is in ascending compareTo order, the hooks are called in reverse order
+        AbstractBundleState systemBundle = serviceManager.getSystemBundleState();
+        List<ServiceState> states = new ArrayList<ServiceState>(serviceStates.length);
+        List<T> hooks = new ArrayList<T>(serviceStates.length);
+        for (int i = serviceStates.length - 1; i >= 0; i--) {
+            ServiceState serviceState = serviceStates[i];
+            T hook = obtainedHooks.get(serviceState);
+            if (hook == null) {
+                Object value = serviceManager.getService(systemBundle, serviceState);
+                if (type.isInstance(value) == false) {
+                    log.warnf("Cannot obtain %s from: %s", type.getSimpleName(), serviceState);
+                    continue;
+                }
+                hook = type.cast(value);
+                obtainedHooks.put(serviceState, hook);
+            }
+            states.add(serviceState);
+            hooks.add(hook);
+        }
+        return new Snapshot<T>(states.toArray(new ServiceState[states.size()]), hooks);
+    }
+
+    static final class Snapshot<T> {
+
+        private static final Snapshot<Object> EMPTY = new Snapshot<Object>(new ServiceState[0], Collections.emptyList());
+
+        final ServiceState[] serviceStates;
+        final List<T> hooks;
+
+        Snapshot(ServiceState[] serviceStates, List<T> hooks) {
+            this.serviceStates = serviceStates;
+            this.hooks = Collections.unmodifiableList(hooks);
+        }
+
+        @SuppressWarnings("unchecked")
+        static <T> Snapshot<T> empty() {
+            return (Snapshot<T>) EMPTY;
+        }
+    }
+}
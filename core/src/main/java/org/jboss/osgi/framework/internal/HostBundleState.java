@@ -21,6 +21,7 @@
  */
 package org.jboss.osgi.framework.internal;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
 import java.util.List;
@@ -466,10 +467,16 @@ final class HostBundleState extends UserBundleState {
     private void removeServicesAndListeners() {
         // Any services registered by this bundle must be unregistered.
         // Any services used by this bundle must be released.
-        for (ServiceState serviceState : getRegisteredServicesInternal()) {
-            serviceState.unregisterInternal();
+        ServiceManagerPlugin serviceManager = getFrameworkState().getServiceManagerPlugin();
+        serviceManager.unregisterServices(new ArrayList<ServiceState>(getRegisteredServicesInternal()));
+        for (ServiceState serviceState : getServicesInUseInternal()) {
+            while (serviceManager.ungetService(this, serviceState)) {
+            }
         }
 
+        // Any cached lookups by this bundle are no longer valid
+        serviceManager.removeCachedServiceReferences(this);
+
         // Any listeners registered by this bundle must be removed
         FrameworkEventsPlugin eventsPlugin = getFrameworkState().getFrameworkEventsPlugin();
         eventsPlugin.removeBundleListeners(this);
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Records the invocations of event listeners.
+ *
+ * A synchronous listener call that takes longer than the threshold is always logged, because it delays the thread that
+ * caused the event. The per-class statistics are disabled by default, so that event delivery does not pay for them. When
+ * they are enabled, invocation counts and latencies are kept per listener class. The class name is used as the key, so
+ * that the metrics do not keep the classes of uninstalled bundles alive.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class ListenerMetrics implements ListenerMetricsMBean {
+
+    // Provide logging
+    private static final Logger log = Logger.getLogger(ListenerMetrics.class);
+
+    static final long DEFAULT_SLOW_THRESHOLD = 1000;
+
+    private final EventDispatcher bundleEventDispatcher;
+    private final EventDispatcher frameworkEventDispatcher;
+    private final ConcurrentMap<String, Statistics> statistics = new ConcurrentHashMap<String, Statistics>();
+    private final boolean enabled;
+    private volatile long slowThresholdNanos;
+
+    ListenerMetrics(EventDispatcher bundleEventDispatcher, EventDispatcher frameworkEventDispatcher, boolean enabled, long slowThresholdMillis) {
+        if (bundleEventDispatcher == null)
+            throw new IllegalArgumentException("Null bundleEventDispatcher");
+        if (frameworkEventDispatcher == null)
+            throw new IllegalArgumentException("Null frameworkEventDispatcher");
+        this.bundleEventDispatcher = bundleEventDispatcher;
+        this.frameworkEventDispatcher = frameworkEventDispatcher;
+        this.enabled = enabled;
+        setSlowListenerThreshold(slowThresholdMillis);
+    }
+
+    /**
+     * Get the start time of a listener call, or zero if the call is not timed.
+     */
+    long start(boolean synchronous) {
+        return (enabled || synchronous) ? System.nanoTime() : 0;
+    }
+
+    /**
+     * Record a listener call that started at the time returned by {@link #start(boolean)}.
+     */
+    void listenerCalled(Object listener, long startNanos, boolean synchronous, String eventName) {
+        if (enabled == false && synchronous == false)
+            return;
+
+        long nanos = System.nanoTime() - startNanos;
+        if (enabled) {
+            String className = listener.getClass().getName();
+            Statistics stats = statistics.get(className);
+            if (stats == null) {
+                stats = new Statistics();
+                Statistics existing = statistics.putIfAbsent(className, stats);
+                if (existing != null)
+                    stats = existing;
+            }
+            stats.record(nanos);
+        }
+
+        if (synchronous && nanos > slowThresholdNanos)
+            log.warnf("Slow synchronous listener %s took %d ms for %s", listener.getClass().getName(), TimeUnit.NANOSECONDS.toMillis(nanos), eventName);
+    }
+
+    @Override
+    public String[] getListenerClassNames() {
+        List<String> result = new ArrayList<String>(statistics.keySet());
+        Collections.sort(result);
+        return result.toArray(new String[result.size()]);
+    }
+
+    @Override
+    public long getInvocationCount(String className) {
+        Statistics stats = statistics.get(className);
+        return stats != null ? stats.count.get() : 0;
+    }
+
+    @Override
+    public long getTotalLatency(String className) {
+        Statistics stats = statistics.get(className);
+        return stats != null ? TimeUnit.NANOSECONDS.toMicros(stats.totalNanos.get()) : 0;
+    }
+
+    @Override
+    public long getMaxLatency(String className) {
+        Statistics stats = statistics.get(className);
+        return stats != null ? TimeUnit.NANOSECONDS.toMicros(stats.maxNanos.get()) : 0;
+    }
+
+    @Override
+    public String[] listListenerStatistics() {
+        List<Entry<String, Statistics>> entries = new ArrayList<Entry<String, Statistics>>(statistics.entrySet());
+        Collections.sort(entries, new Comparator<Entry<String, Statistics>>() {
+            public int compare(Entry<String, Statistics> o1, Entry<String, Statistics> o2) {
+                long total1 = o1.getValue().totalNanos.get();
+                long total2 = o2.getValue().totalNanos.get();
+                return total1 > total2 ? -1 : (total1 < total2 ? 1 : 0);
+            }
+        });
+        String[] result = new String[entries.size()];
+        for (int i = 0; i < result.length; i++) {
+            Entry<String, Statistics> entry = entries.get(i);
+            Statistics stats = entry.getValue();
+            long total = TimeUnit.NANOSECONDS.toMicros(stats.totalNanos.get());
+            long max = TimeUnit.NANOSECONDS.toMicros(stats.maxNanos.get());
+            result[i] = entry.getKey() + ": count=" + stats.count.get() + ",total=" + total + "us,max=" + max + "us";
+        }
+        return result;
+    }
+
+    @Override
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    @Override
+    public long getSlowListenerThreshold() {
+        return TimeUnit.NANOSECONDS.toMillis(slowThresholdNanos);
+    }
+
+    @Override
+    public void setSlowListenerThreshold(long millis) {
+        if (millis < 0)
+            throw new IllegalArgumentException("Invalid threshold: " + millis);
+        slowThresholdNanos = TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    @Override
+    public int getBundleEventBacklog() {
+        return bundleEventDispatcher.getBacklog();
+    }
+
+    @Override
+    public int getBundleEventPeakBacklog() {
+        return bundleEventDispatcher.getPeakBacklog();
+    }
+
+    @Override
+    public long getBundleEventOverflowCount() {
+        return bundleEventDispatcher.getOverflowCount();
+    }
+
+    @Override
+    public int getFrameworkEventBacklog() {
+        return frameworkEventDispatcher.getBacklog();
+    }
+
+    @Override
+    public int getFrameworkEventPeakBacklog() {
+        return frameworkEventDispatcher.getPeakBacklog();
+    }
+
+    @Override
+    public long getFrameworkEventOverflowCount() {
+        return frameworkEventDispatcher.getOverflowCount();
+    }
+
+    @Override
+    public void reset() {
+        statistics.clear();
+    }
+
+    static final class Statistics {
+
+        final AtomicLong count = new AtomicLong();
+        final AtomicLong totalNanos = new AtomicLong();
+        final AtomicLong maxNanos = new AtomicLong();
+
+        void record(long nanos) {
+            count.incrementAndGet();
+            totalNanos.addAndGet(nanos);
+            long max = maxNanos.get();
+            while (nanos > max && maxNanos.compareAndSet(max, nanos) == false)
+                max = maxNanos.get();
+        }
+    }
+}
@@ -0,0 +1,78 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+/**
+ * The management interface of the event listener metrics.
+ *
+ * Latencies are given in microseconds.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public interface ListenerMetricsMBean {
+
+    /**
+     * Get the class names of the listeners that have been called.
+     */
+    String[] getListenerClassNames();
+
+    long getInvocationCount(String className);
+
+    long getTotalLatency(String className);
+
+    long getMaxLatency(String className);
+
+    /**
+     * Get one line of statistics per listener class, the slowest listeners first.
+     */
+    String[] listListenerStatistics();
+
+    /**
+     * True if the per-class statistics of listener calls are recorded.
+     */
+    boolean isEnabled();
+
+    /**
+     * Get the threshold in milliseconds above which a synchronous listener call is logged as slow.
+     */
+    long getSlowListenerThreshold();
+
+    void setSlowListenerThreshold(long millis);
+
+    int getBundleEventBacklog();
+
+    int getBundleEventPeakBacklog();
+
+    long getBundleEventOverflowCount();
+
+    int getFrameworkEventBacklog();
+
+    int getFrameworkEventPeakBacklog();
+
+    long getFrameworkEventOverflowCount();
+
+    /**
+     * Reset the listener statistics.
+     */
+    void reset();
+}
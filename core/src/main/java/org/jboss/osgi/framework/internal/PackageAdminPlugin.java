@@ -182,19 +182,12 @@ public final class PackageAdminPlugin extends AbstractExecutorService<PackageAdm
         if (name == null)
             throw new IllegalArgumentException("Null name");
 
-        Set<ExportedPackage> result = new HashSet<ExportedPackage>();
+        List<ExportedPackage> result = new ArrayList<ExportedPackage>();
         BundleManager bundleManager = injectedBundleManager.getValue();
-        for (AbstractBundleState bundleState : bundleManager.getBundles(null)) {
-            for (AbstractBundleRevision brev : bundleState.getAllBundleRevisions()) {
-                if (brev.isResolved() && !brev.isFragment()) {
-                    for (Capability cap : brev.getCapabilities(WIRING_PACKAGE_NAMESPACE)) {
-                        XPackageCapability xcap = (XPackageCapability) cap;
-                        if (xcap.getPackageName().equals(name)) {
-                            result.add(new ExportedPackageImpl(xcap));
-                        }
-                    }
-                }
-            }
+        for (XPackageCapability xcap : bundleManager.getPackageExporterIndex().getCapabilities(name)) {
+            AbstractBundleRevision brev = (AbstractBundleRevision) xcap.getResource();
+            if (brev.isResolved())
+                result.add(new ExportedPackageImpl(xcap));
         }
         return result.toArray(new ExportedPackage[result.size()]);
     }
@@ -203,27 +196,22 @@ public final class PackageAdminPlugin extends AbstractExecutorService<PackageAdm
     public ExportedPackage getExportedPackage(String name) {
         // This implementation is flawed but the design of this API in PackageAdmin
         // is also flawed and from 4.3 deprecated so we're doing a best effort
-        ExportedPackage[] exported = getExportedPackagesInternal(name);
-        List<ExportedPackage> wired = new ArrayList<ExportedPackage>();
-        List<ExportedPackage> notWired = new ArrayList<ExportedPackage>();
-
-        for (ExportedPackage ep : exported) {
-            XPackageCapability cap = ((ExportedPackageImpl) ep).getCapability();
-            if (isWired(cap))
-                wired.add(ep);
-            else
-                notWired.add(ep);
+        if (name == null)
+            throw new IllegalArgumentException("Null name");
+
+        // The exporters are ordered by descending version
+        XPackageCapability notWired = null;
+        BundleManager bundleManager = injectedBundleManager.getValue();
+        for (XPackageCapability xcap : bundleManager.getPackageExporterIndex().getCapabilities(name)) {
+            AbstractBundleRevision brev = (AbstractBundleRevision) xcap.getResource();
+            if (brev.isResolved() == false)
+                continue;
+            if (isWired(xcap))
+                return new ExportedPackageImpl(xcap);
+            if (notWired == null)
+                notWired = xcap;
         }
-        ExportedPackageComparator comparator = new ExportedPackageComparator();
-        Collections.sort(wired, comparator);
-        Collections.sort(notWired, comparator);
-
-        if (wired.size() > 0)
-            return wired.get(0);
-        else if (notWired.size() > 0)
-            return notWired.get(0);
-        else
-            return null;
+        return notWired != null ? new ExportedPackageImpl(notWired) : null;
     }
 
     private boolean isWired(XPackageCapability cap) {
@@ -640,12 +628,4 @@ public final class PackageAdminPlugin extends AbstractExecutorService<PackageAdm
             return sl1 < sl2 ? -1 : (sl1 == sl2 ? 0 : 1);
         }
     }
-
-    private static class ExportedPackageComparator implements Comparator<ExportedPackage> {
-
-        @Override
-        public int compare(ExportedPackage ep1, ExportedPackage ep2) {
-            return ep2.getVersion().compareTo(ep1.getVersion());
-        }
-    }
 }
\ No newline at end of file
@@ -0,0 +1,112 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import static org.osgi.framework.resource.ResourceConstants.WIRING_PACKAGE_NAMESPACE;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.jboss.osgi.resolver.XPackageCapability;
+import org.osgi.framework.resource.Capability;
+
+/**
+ * An index of the package capabilities of the installed bundle revisions by package name.
+ *
+ * The capabilities for a package are kept in an immutable array, ordered by descending version and then by ascending
+ * bundle id. The array is replaced when a revision is added or removed, so that lookups do not lock. Fragment revisions
+ * are not indexed. The index does not check whether a revision is resolved.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class PackageExporterIndex {
+
+    private static final XPackageCapability[] NO_CAPABILITIES = new XPackageCapability[0];
+
+    private static final Comparator<XPackageCapability> EXPORTER_ORDER = new Comparator<XPackageCapability>() {
+        @Override
+        public int compare(XPackageCapability cap1, XPackageCapability cap2) {
+            int result = cap2.getVersion().compareTo(cap1.getVersion());
+            if (result == 0) {
+                long id1 = ((AbstractBundleRevision) cap1.getResource()).getBundleState().getBundleId();
+                long id2 = ((AbstractBundleRevision) cap2.getResource()).getBundleState().getBundleId();
+                result = id1 < id2 ? -1 : (id1 > id2 ? 1 : 0);
+            }
+            return result;
+        }
+    };
+
+    private final ConcurrentMap<String, XPackageCapability[]> exporters = new ConcurrentHashMap<String, XPackageCapability[]>();
+
+    /**
+     * Get the package capabilities for the given package name, highest version first. The returned array must not be modified.
+     */
+    XPackageCapability[] getCapabilities(String packageName) {
+        XPackageCapability[] result = exporters.get(packageName);
+        return result != null ? result : NO_CAPABILITIES;
+    }
+
+    synchronized void addRevision(AbstractBundleRevision brev) {
+        if (brev.isFragment())
+            return;
+
+        for (XPackageCapability cap : getPackageCapabilities(brev)) {
+            String packageName = cap.getPackageName();
+            XPackageCapability[] caps = getCapabilities(packageName);
+            XPackageCapability[] result = Arrays.copyOf(caps, caps.length + 1);
+            result[caps.length] = cap;
+            Arrays.sort(result, EXPORTER_ORDER);
+            exporters.put(packageName, result);
+        }
+    }
+
+    synchronized void removeRevision(AbstractBundleRevision brev) {
+        if (brev.isFragment())
+            return;
+
+        for (XPackageCapability cap : getPackageCapabilities(brev)) {
+            String packageName = cap.getPackageName();
+            XPackageCapability[] caps = getCapabilities(packageName);
+            List<XPackageCapability> result = new ArrayList<XPackageCapability>(caps.length);
+            for (XPackageCapability aux : caps) {
+                if (aux != cap)
+                    result.add(aux);
+            }
+            if (result.isEmpty())
+                exporters.remove(packageName);
+            else if (result.size() != caps.length)
+                exporters.put(packageName, result.toArray(new XPackageCapability[result.size()]));
+        }
+    }
+
+    private static List<XPackageCapability> getPackageCapabilities(AbstractBundleRevision brev) {
+        List<XPackageCapability> result = new ArrayList<XPackageCapability>();
+        for (Capability cap : brev.getCapabilities(WIRING_PACKAGE_NAMESPACE))
+            result.add((XPackageCapability) cap);
+        return result;
+    }
+}
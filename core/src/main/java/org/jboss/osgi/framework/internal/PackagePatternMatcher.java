@@ -0,0 +1,170 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Matches package names against the package patterns of a DynamicImport-Package header.
+ *
+ * The exported packages and the patterns are compiled into a character trie. Every node holds the values of all the
+ * patterns that apply to the package prefix it stands for, so that a lookup walks the name once and does not allocate.
+ * A pattern 'org.foo' or 'org.foo.*' applies to the package org.foo and to its subpackages, a pattern '*' applies to all
+ * packages. Patterns never apply to an exported package. The values of the matching patterns are returned in the order
+ * of the patterns, wildcards and shorter prefixes first. Callers must check the actual package wiring.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class PackagePatternMatcher<T> {
+
+    private final Node root = new Node();
+
+    /**
+     * Create a matcher for the given exported package names and the patterns of the given values.
+     */
+    PackagePatternMatcher(Collection<String> exportedPackages, Map<T, String> patterns) {
+        if (exportedPackages == null)
+            throw new IllegalArgumentException("Null exportedPackages");
+        if (patterns == null)
+            throw new IllegalArgumentException("Null patterns");
+
+        // Without patterns there is nothing to exclude
+        if (patterns.isEmpty() == false) {
+            for (String packageName : exportedPackages)
+                root.add(packageName, packageName.length()).exported = true;
+        }
+
+        for (Map.Entry<T, String> entry : patterns.entrySet()) {
+            String pattern = entry.getValue();
+            int length = pattern.length();
+            if (pattern.equals("*"))
+                length = 0;
+            else if (pattern.endsWith(".*"))
+                length -= 2;
+            root.add(pattern, length).addValue(entry.getKey());
+        }
+
+        List<Object> empty = Collections.emptyList();
+        root.compile(empty, true);
+    }
+
+    /**
+     * Get the values of the patterns that apply to the package of the given class or resource name.
+     * The separators in the name may be '.' or '/'. The returned list must not be modified.
+     *
+     * @param name the class or resource name
+     * @param packageLength the length of the package part of the name, zero or less for the default package
+     */
+    @SuppressWarnings("unchecked")
+    List<T> getMatches(String name, int packageLength) {
+        Node node = root;
+        List<Object> result = root.matches;
+        for (int i = 0; i < packageLength; i++) {
+            char ch = name.charAt(i);
+            if (ch == '/')
+                ch = '.';
+            if (ch == '.')
+                result = node.matches;
+            node = node.getChild(ch);
+            if (node == null)
+                return (List<T>) result;
+        }
+        if (node.exported)
+            return Collections.emptyList();
+        return (List<T>) node.matches;
+    }
+
+    static final class Node {
+
+        private static final char[] NO_KEYS = new char[0];
+        private static final Node[] NO_CHILDREN = new Node[0];
+
+        private char[] keys = NO_KEYS;
+        private Node[] children = NO_CHILDREN;
+        private List<Object> values;
+        private List<Object> matches;
+        private boolean exported;
+
+        Node getChild(char ch) {
+            int index = Arrays.binarySearch(keys, ch);
+            return index >= 0 ? children[index] : null;
+        }
+
+        Node add(String name, int length) {
+            Node node = this;
+            for (int i = 0; i < length; i++) {
+                char ch = name.charAt(i);
+                Node child = node.getChild(ch);
+                if (child == null)
+                    child = node.addChild(ch);
+                node = child;
+            }
+            return node;
+        }
+
+        void addValue(Object value) {
+            if (values == null)
+                values = new ArrayList<Object>();
+            values.add(value);
+        }
+
+        /**
+         * Compute the matches of this node and its children from the matches of the enclosing package.
+         */
+        void compile(List<Object> inherited, boolean boundary) {
+            if (values == null) {
+                matches = inherited;
+            } else {
+                List<Object> result = new ArrayList<Object>(inherited.size() + values.size());
+                result.addAll(inherited);
+                result.addAll(values);
+                matches = Collections.unmodifiableList(result);
+                values = null;
+            }
+            // Only a child after a separator is in a subpackage of this node
+            for (int i = 0; i < keys.length; i++)
+                children[i].compile(boundary || keys[i] == '.' ? matches : inherited, false);
+        }
+
+        private Node addChild(char ch) {
+            int index = -(Arrays.binarySearch(keys, ch) + 1);
+            char[] newKeys = new char[keys.length + 1];
+            Node[] newChildren = new Node[children.length + 1];
+            System.arraycopy(keys, 0, newKeys, 0, index);
+            System.arraycopy(children, 0, newChildren, 0, index);
+            System.arraycopy(keys, index, newKeys, index + 1, keys.length - index);
+            System.arraycopy(children, index, newChildren, index + 1, children.length - index);
+            Node child = new Node();
+            newKeys[index] = ch;
+            newChildren[index] = child;
+            keys = newKeys;
+            children = newChildren;
+            return child;
+        }
+    }
+}
@@ -41,6 +41,7 @@ final class RevisionContentResourceLoader implements ResourceLoader {
 
     private final RevisionContent revContent;
     private final VirtualFileResourceLoader delegate;
+    private volatile Collection<String> paths;
 
     RevisionContentResourceLoader(RevisionContent revContent) {
         if (revContent == null)
@@ -76,8 +77,25 @@ final class RevisionContentResourceLoader implements ResourceLoader {
         return null;
     }
 
+    /**
+     * Get the paths of the content root. They are computed once per revision and kept in the bundle storage, so that
+     * the content does not need to be scanned again after a restart.
+     */
     @Override
     public Collection<String> getPaths() {
-        return delegate.getPaths();
+        Collection<String> result = paths;
+        if (result == null) {
+            int contentId = revContent.getContentId();
+            BundleStorageState storageState = revContent.getRevision().getBundleStorageState();
+            if (storageState != null)
+                result = storageState.loadContentPaths(contentId);
+            if (result == null) {
+                result = delegate.getPaths();
+                if (storageState != null)
+                    storageState.storeContentPaths(contentId, result);
+            }
+            paths = result;
+        }
+        return result;
     }
 }
@@ -21,6 +21,7 @@
  */
 package org.jboss.osgi.framework.internal;
 
+import java.lang.reflect.AccessibleObject;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
 
@@ -90,4 +91,17 @@ final class SecurityActions {
             });
         }
     }
-}
+
+    static void setAccessible(final AccessibleObject accessible) {
+        if (System.getSecurityManager() == null) {
+            accessible.setAccessible(true);
+        } else {
+            AccessController.doPrivileged(new PrivilegedAction<Void>() {
+                public Void run() {
+                    accessible.setAccessible(true);
+                    return null;
+                }
+            });
+        }
+    }
+}
\ No newline at end of file
@@ -0,0 +1,150 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.osgi.framework.internal.FrameworkEventsPlugin.ServiceListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * An index of service listener registrations by the objectClass values of their filters.
+ *
+ * A listener whose filter requires one of a set of exact objectClass values is only indexed under these values. All
+ * other listeners are kept in a residual array that is visited for every service event. The index is copy on write,
+ * adding or removing a listener replaces the affected arrays so that event dispatch reads them without locking.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class ServiceListenerIndex {
+
+    private static final ServiceListenerRegistration[] NO_LISTENERS = new ServiceListenerRegistration[0];
+
+    private volatile Map<String, ServiceListenerRegistration[]> classListeners = Collections.emptyMap();
+    private volatile ServiceListenerRegistration[] residualListeners = NO_LISTENERS;
+
+    synchronized void add(ServiceListenerRegistration slreg) {
+        String[] objectClasses = slreg.getObjectClasses();
+        if (objectClasses == null) {
+            residualListeners = append(residualListeners, slreg);
+            return;
+        }
+        Map<String, ServiceListenerRegistration[]> result = new HashMap<String, ServiceListenerRegistration[]>(classListeners);
+        for (String className : objectClasses) {
+            ServiceListenerRegistration[] listeners = result.get(className);
+            result.put(className, append(listeners != null ? listeners : NO_LISTENERS, slreg));
+        }
+        classListeners = Collections.unmodifiableMap(result);
+    }
+
+    synchronized void remove(ServiceListenerRegistration slreg) {
+        String[] objectClasses = slreg.getObjectClasses();
+        if (objectClasses == null) {
+            residualListeners = removeIdentity(residualListeners, slreg);
+            return;
+        }
+        Map<String, ServiceListenerRegistration[]> result = new HashMap<String, ServiceListenerRegistration[]>(classListeners);
+        for (String className : objectClasses) {
+            ServiceListenerRegistration[] listeners = result.get(className);
+            if (listeners != null) {
+                listeners = removeIdentity(listeners, slreg);
+                if (listeners.length == 0)
+                    result.remove(className);
+                else
+                    result.put(className, listeners);
+            }
+        }
+        classListeners = Collections.unmodifiableMap(result);
+    }
+
+    /**
+     * Get the listeners that may match a service with the given class names. The returned array must not be modified.
+     */
+    ServiceListenerRegistration[] getListeners(String[] classNames) {
+        Map<String, ServiceListenerRegistration[]> classListeners = this.classListeners;
+        ServiceListenerRegistration[] residualListeners = this.residualListeners;
+        if (classListeners.isEmpty())
+            return residualListeners;
+
+        if (classNames.length == 1) {
+            ServiceListenerRegistration[] listeners = classListeners.get(classNames[0]);
+            if (listeners == null)
+                return residualListeners;
+            if (residualListeners.length == 0)
+                return listeners;
+            ServiceListenerRegistration[] result = new ServiceListenerRegistration[residualListeners.length + listeners.length];
+            System.arraycopy(residualListeners, 0, result, 0, residualListeners.length);
+            System.arraycopy(listeners, 0, result, residualListeners.length, listeners.length);
+            return result;
+        }
+
+        // A listener may be indexed under more than one of the class names
+        List<ServiceListenerRegistration> result = null;
+        Set<ServiceListenerRegistration> added = null;
+        for (String className : classNames) {
+            ServiceListenerRegistration[] listeners = classListeners.get(className);
+            if (listeners != null) {
+                if (result == null) {
+                    result = new ArrayList<ServiceListenerRegistration>(Arrays.asList(residualListeners));
+                    added = Collections.newSetFromMap(new IdentityHashMap<ServiceListenerRegistration, Boolean>());
+                }
+                for (ServiceListenerRegistration slreg : listeners) {
+                    if (added.add(slreg))
+                        result.add(slreg);
+                }
+            }
+        }
+        return result != null ? result.toArray(new ServiceListenerRegistration[result.size()]) : residualListeners;
+    }
+
+    synchronized void clear() {
+        classListeners = Collections.emptyMap();
+        residualListeners = NO_LISTENERS;
+    }
+
+    private static ServiceListenerRegistration[] append(ServiceListenerRegistration[] listeners, ServiceListenerRegistration slreg) {
+        ServiceListenerRegistration[] result = new ServiceListenerRegistration[listeners.length + 1];
+        System.arraycopy(listeners, 0, result, 0, listeners.length);
+        result[listeners.length] = slreg;
+        return result;
+    }
+
+    // Registrations are equal if they have the same listener, but the same listener may be added by different bundles
+    private static ServiceListenerRegistration[] removeIdentity(ServiceListenerRegistration[] listeners, ServiceListenerRegistration slreg) {
+        for (int i = 0; i < listeners.length; i++) {
+            if (listeners[i] == slreg) {
+                ServiceListenerRegistration[] result = new ServiceListenerRegistration[listeners.length - 1];
+                System.arraycopy(listeners, 0, result, 0, i);
+                System.arraycopy(listeners, i + 1, result, i, listeners.length - i - 1);
+                return result;
+            }
+        }
+        return listeners;
+    }
+}
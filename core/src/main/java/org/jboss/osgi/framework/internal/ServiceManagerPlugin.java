@@ -25,24 +25,27 @@ import org.jboss.logging.Logger;
 import org.jboss.modules.ModuleClassLoader;
 import org.jboss.modules.ModuleLoadException;
 import org.jboss.msc.service.AbstractService;
+import org.jboss.msc.service.AbstractServiceListener;
 import org.jboss.msc.service.Service;
 import org.jboss.msc.service.ServiceBuilder;
 import org.jboss.msc.service.ServiceContainer;
 import org.jboss.msc.service.ServiceController;
 import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceController.Transition;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.msc.service.ServiceTarget;
 import org.jboss.msc.service.StartContext;
 import org.jboss.msc.service.StartException;
 import org.jboss.msc.service.StopContext;
 import org.jboss.msc.value.InjectedValue;
+import org.jboss.osgi.framework.Constants;
 import org.jboss.osgi.framework.Services;
 import org.jboss.osgi.framework.util.NoFilter;
 import org.jboss.osgi.framework.util.RemoveOnlyCollection;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
 import org.osgi.framework.Filter;
-import org.osgi.framework.FrameworkUtil;
 import org.osgi.framework.InvalidSyntaxException;
 import org.osgi.framework.ServiceEvent;
 import org.osgi.framework.ServiceReference;
@@ -51,16 +54,20 @@ import org.osgi.framework.hooks.service.ListenerHook;
 import org.osgi.framework.hooks.service.ListenerHook.ListenerInfo;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Dictionary;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.atomic.AtomicLong;
 
-import static org.jboss.osgi.framework.Services.JBOSGI_SERVICE_BASE_NAME;
 import static org.jboss.osgi.framework.Services.JBOSGI_XSERVICE_BASE_NAME;
 
 /**
@@ -80,6 +87,18 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
 
     // The ServiceId generator
     private AtomicLong identityGenerator = new AtomicLong();
+    // The registry of OSGi services
+    private ServiceRegistry serviceRegistry;
+    // The optional cache of lookup results
+    private ServiceQueryCache queryCache;
+    // The snapshots of the registered service hooks
+    private HookRegistry hookRegistry;
+    // The cache of class space assignability results
+    private final AssignabilityCache assignabilityCache = new AssignabilityCache();
+    // The optional MSC mirror of the registered services by service name
+    private ConcurrentMap<ServiceName, List<ServiceState>> mirroredServices;
+    // The stable states of the services that were registered with MSC directly
+    private final ConcurrentMap<ServiceName, XServiceEntry> xservices = new ConcurrentHashMap<ServiceName, XServiceEntry>();
     // The cached service container
     private ServiceContainer serviceContainer;
     // The cached service target for all child services
@@ -103,11 +122,37 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
         super.start(context);
         serviceContainer = context.getController().getServiceContainer();
         serviceTarget = context.getChildTarget();
+
+        BundleManager bundleManager = injectedBundleManager.getValue();
+        String indexKeys = (String) bundleManager.getProperty(Constants.PROPERTY_SERVICE_INDEX_KEYS);
+        if (indexKeys == null)
+            indexKeys = ServiceRegistry.DEFAULT_INDEX_KEYS;
+        serviceRegistry = new ServiceRegistry(Arrays.asList(indexKeys.split(",")));
+        hookRegistry = new HookRegistry(this, serviceRegistry);
+
+        if (bundleManager.getBooleanProperty(Constants.PROPERTY_SERVICE_MSC_MIRROR, false))
+            mirroredServices = new ConcurrentHashMap<ServiceName, List<ServiceState>>();
+
+        int cacheSize = bundleManager.getIntegerProperty(Constants.PROPERTY_SERVICE_QUERY_CACHE_SIZE, 0);
+        if (cacheSize > 0)
+            queryCache = new ServiceQueryCache(cacheSize);
     }
 
     @Override
     public void stop(StopContext context) {
         super.stop(context);
+        if (queryCache != null) {
+            log.debugf("Service query cache hits: %d, misses: %d", queryCache.getHitCount(), queryCache.getMissCount());
+            queryCache.clear();
+        }
+        assignabilityCache.clear();
+        hookRegistry.clear();
+        serviceRegistry.clear();
+        if (mirroredServices != null)
+            mirroredServices.clear();
+        for (XServiceEntry entry : xservices.values())
+            entry.controller.removeListener(entry);
+        xservices.clear();
     }
 
     @Override
@@ -119,6 +164,14 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
         return injectedFrameworkEvents.getValue();
     }
 
+    HookRegistry getHookRegistry() {
+        return hookRegistry;
+    }
+
+    AbstractBundleState getSystemBundleState() {
+        return injectedBundleManager.getValue().getSystemBundle();
+    }
+
     /**
      * Get the next service ID from the manager
      */
@@ -138,18 +191,20 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
      * @return A <code>ServiceRegistration</code> object for use by the bundle registering the service
      */
     @SuppressWarnings({ "rawtypes" })
-    ServiceState registerService(final AbstractBundleState bundleState, final String[] clazzes, final Object serviceValue, final Dictionary properties) {
+    ServiceState registerService(AbstractBundleState bundleState, String[] clazzes, Object serviceValue, Dictionary properties) {
+        ServiceState serviceState = createServiceState(bundleState, clazzes, serviceValue, properties);
+        registerServices(bundleState, Collections.singletonList(serviceState));
+        return serviceState;
+    }
+
+    /**
+     * Create a service that can be registered with {@link #registerServices(AbstractBundleState, List)}.
+     */
+    @SuppressWarnings({ "rawtypes" })
+    ServiceState createServiceState(final AbstractBundleState bundleState, final String[] clazzes, final Object serviceValue, final Dictionary properties) {
         if (clazzes == null || clazzes.length == 0)
             throw new IllegalArgumentException("Null service classes");
 
-        // Immediately after registration of a {@link ListenerHook}, the ListenerHook.added() method will be called
-        // to provide the current collection of service listeners which had been added prior to the hook being registered.
-        FrameworkEventsPlugin eventsPlugin = getFrameworkEventsPlugin();
-        Collection<ListenerInfo> listenerInfos = null;
-        if (serviceValue instanceof ListenerHook) {
-            listenerInfos = eventsPlugin.getServiceListenerInfos(null);
-        }
-
         ServiceState.ValueProvider valueProvider = new ServiceState.ValueProvider() {
             public Object getValue() {
                 return serviceValue;
@@ -157,49 +212,48 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
         };
 
         long serviceId = getNextServiceId();
-        ServiceState serviceState = new ServiceState(this, bundleState, serviceId, clazzes, valueProvider, properties);
-        log.debugf("Register service: %s", serviceState);
+        return new ServiceState(this, bundleState, serviceId, clazzes, valueProvider, properties);
+    }
 
-        for (ServiceName serviceName : serviceState.getServiceNames()) {
-            // Obtain an interned string representation of the service name
-            // having it interned means that two services with the same name will
-            // return the same object.
-            String sns = serviceName.getCanonicalName().intern();
-
-            // Now synchronize on the string representation so that two concurrent
-            // registrations of two services with the same name will not race to create an MSC service.
-            synchronized(sns) {
-                @SuppressWarnings("unchecked")
-                ServiceController<List<ServiceState>> controller = (ServiceController<List<ServiceState>>) serviceContainer.getService(serviceName);
-                if (controller != null) {
-                    List<ServiceState> serviceStates = controller.getValue();
-                    serviceStates.add(serviceState);
-                } else {
-                    final List<ServiceState> serviceStates = new CopyOnWriteArrayList<ServiceState>();
-                    serviceStates.add(serviceState);
-                    Service<List<ServiceState>> service = new AbstractService<List<ServiceState>>() {
-                        public List<ServiceState> getValue() throws IllegalStateException {
-                            // [TODO] for injection to work this needs to be the Object value
-                            return serviceStates;
-                        }
-                    };
-                    ServiceBuilder<List<ServiceState>> builder = serviceTarget.addService(serviceName, service);
-                    builder.install();
-                }
-            }
+    /**
+     * Register the given services of a bundle in one step. The registry is updated once and the REGISTERED events are
+     * delivered in list order after all services have been registered.
+     */
+    void registerServices(AbstractBundleState bundleState, List<ServiceState> serviceStates) {
+        if (serviceStates.isEmpty())
+            return;
+
+        // Immediately after registration of a {@link ListenerHook}, the ListenerHook.added() method will be called
+        // to provide the current collection of service listeners which had been added prior to the hook being registered.
+        FrameworkEventsPlugin eventsPlugin = getFrameworkEventsPlugin();
+        Collection<ListenerInfo> listenerInfos = null;
+        for (ServiceState serviceState : serviceStates) {
+            if (serviceState.getServiceOwner() != bundleState)
+                throw new IllegalArgumentException("Invalid service owner: " + serviceState);
+            if (listenerInfos == null && serviceState.getRawValue() instanceof ListenerHook)
+                listenerInfos = eventsPlugin.getServiceListenerInfos(null);
+
+            log.debugf("Register service: %s", serviceState);
+            if (mirroredServices != null)
+                addMirroredService(serviceState);
         }
-        bundleState.addRegisteredService(serviceState);
+
+        serviceRegistry.addServices(serviceStates);
+        hookRegistry.servicesChanged(serviceStates);
+        bundleState.addRegisteredServices(serviceStates);
 
         // Call the newly added ListenerHook.added() method
-        if (serviceValue instanceof ListenerHook) {
-            ListenerHook listenerHook = (ListenerHook) serviceValue;
-            listenerHook.added(listenerInfos);
+        for (ServiceState serviceState : serviceStates) {
+            if (serviceState.getRawValue() instanceof ListenerHook) {
+                ListenerHook listenerHook = (ListenerHook) serviceState.getRawValue();
+                listenerHook.added(listenerInfos);
+            }
         }
 
         // This event is synchronously delivered after the service has been registered with the Framework.
-        eventsPlugin.fireServiceEvent(bundleState, ServiceEvent.REGISTERED, serviceState);
-
-        return serviceState;
+        for (ServiceState serviceState : serviceStates) {
+            eventsPlugin.fireServiceEvent(bundleState, ServiceEvent.REGISTERED, serviceState);
+        }
     }
 
     /**
@@ -214,7 +268,7 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
             throw new IllegalArgumentException("Null clazz");
 
         boolean checkAssignable = (bundleState.getBundleId() != 0);
-        List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, NoFilter.INSTANCE, checkAssignable);
+        List<ServiceState> result = getCachedServiceReferences(bundleState, clazz, NoFilter.INSTANCE, checkAssignable);
         result = processFindHooks(bundleState, clazz, null, true, result);
         if (result.isEmpty())
             return null;
@@ -238,14 +292,70 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
     List<ServiceState> getServiceReferences(AbstractBundleState bundleState, String clazz, String filterStr, boolean checkAssignable) throws InvalidSyntaxException {
         Filter filter = NoFilter.INSTANCE;
         if (filterStr != null)
-            filter = FrameworkUtil.createFilter(filterStr);
+            filter = getFrameworkEventsPlugin().createFilter(filterStr);
 
-        List<ServiceState> result = getServiceReferencesInternal(bundleState, clazz, filter, checkAssignable);
+        List<ServiceState> result = getCachedServiceReferences(bundleState, clazz, filter, checkAssignable);
         result = processFindHooks(bundleState, clazz, filterStr, checkAssignable, result);
         return result;
     }
 
-    @SuppressWarnings("unchecked")
+    /**
+     * Get the number of lookups that were answered from the query cache.
+     */
+    long getQueryCacheHitCount() {
+        return queryCache != null ? queryCache.getHitCount() : 0;
+    }
+
+    /**
+     * Get the number of lookups that could not be answered from the query cache.
+     */
+    long getQueryCacheMissCount() {
+        return queryCache != null ? queryCache.getMissCount() : 0;
+    }
+
+    /**
+     * Remove the cached lookup results for the given calling bundle.
+     */
+    void removeCachedServiceReferences(AbstractBundleState bundleState) {
+        if (queryCache != null)
+            queryCache.removeResults(bundleState);
+    }
+
+    AssignabilityCache getAssignabilityCache() {
+        return assignabilityCache;
+    }
+
+    /**
+     * Remove the cached results that depend on the class space of the given revision.
+     * This must be called when the revision is refreshed or uninstalled.
+     */
+    void removeClassSpace(AbstractBundleRevision brev) {
+        assignabilityCache.removeRevision(brev);
+        removeCachedServiceReferences(brev.getBundleState());
+    }
+
+    /*
+     * Only lookups by class name for services that are in the registry are cached.
+     * Services that were registered with MSC directly are not tracked by the registry generation.
+     * The assignability for a bundle with dynamic imports may change when a package is wired later,
+     * which the registry generation does not track either.
+     */
+    private List<ServiceState> getCachedServiceReferences(AbstractBundleState bundleState, String className, Filter filter, boolean checkAssignable) {
+        if (queryCache == null || className == null || serviceRegistry.hasServices(className) == false)
+            return getServiceReferencesInternal(bundleState, className, filter, checkAssignable);
+        if (checkAssignable && ServiceState.hasDynamicImports(bundleState.getCurrentBundleRevision()))
+            return getServiceReferencesInternal(bundleState, className, filter, checkAssignable);
+
+        // Read the generation before the lookup, so that a concurrent modification invalidates the result
+        long generation = serviceRegistry.getGeneration(className);
+        List<ServiceState> result = queryCache.getResult(bundleState, className, filter, checkAssignable, generation);
+        if (result == null) {
+            result = getServiceReferencesInternal(bundleState, className, filter, checkAssignable);
+            queryCache.putResult(bundleState, className, filter, checkAssignable, generation, result);
+        }
+        return result;
+    }
+
     private List<ServiceState> getServiceReferencesInternal(final AbstractBundleState bundleState, final String className, final Filter filter,
             final boolean checkAssignable) {
         if (bundleState == null)
@@ -253,80 +363,147 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
         if (filter == null)
             throw new IllegalArgumentException("Null filter");
 
-        Set<ServiceName> serviceNames = new HashSet<ServiceName>();
-        if (className != null) {
-            ServiceName serviceName = ServiceState.createServiceName(className);
-            if (serviceContainer.getService(serviceName) != null) {
-                serviceNames.add(serviceName);
-            } else {
-                ServiceName xserviceName = ServiceState.createXServiceName(className);
-                if (serviceContainer.getService(xserviceName) != null) {
-                    serviceNames.add(xserviceName);
-                }
+        // The registry candidates are already in ranking order. Candidates that come from
+        // a property index may not be registered under the given class name
+        ServiceState[] serviceStates = serviceRegistry.getCandidates(className, filter);
+        List<ServiceState> resultlist = new ArrayList<ServiceState>();
+        for (ServiceState serviceState : serviceStates) {
+            if (className != null && serviceState.hasClassName(className) == false)
+                continue;
+            if (isMatchingService(bundleState, serviceState, className, filter, checkAssignable)) {
+                resultlist.add(serviceState);
             }
+        }
+
+        // Services that were registered with MSC directly
+        Set<ServiceName> xserviceNames = new HashSet<ServiceName>();
+        if (className != null) {
+            if (serviceRegistry.hasServices(className) == false)
+                xserviceNames.add(ServiceState.createXServiceName(className));
         } else {
             for (ServiceName aux : serviceContainer.getServiceNames()) {
-                if (JBOSGI_SERVICE_BASE_NAME.isParentOf(aux) || JBOSGI_XSERVICE_BASE_NAME.isParentOf(aux)) {
-                    serviceNames.add(aux);
+                if (JBOSGI_XSERVICE_BASE_NAME.isParentOf(aux)) {
+                    xserviceNames.add(aux);
                 }
             }
         }
 
-        if (serviceNames.isEmpty())
-            return Collections.emptyList();
-
-        Set<ServiceState> resultset = new HashSet<ServiceState>();
-        for (ServiceName serviceName : serviceNames) {
-            final ServiceController<?> controller = serviceContainer.getService(serviceName);
-            if (controller != null) {
-                if (JBOSGI_SERVICE_BASE_NAME.isParentOf(serviceName)) {
-                    List<ServiceState> serviceStates = (List<ServiceState>) controller.getValue();
-                    for (ServiceState serviceState : serviceStates) {
-                        if (isMatchingService(bundleState, serviceState, className, filter, checkAssignable)) {
-                            resultset.add(serviceState);
-                        }
-                    }
-                } else if (JBOSGI_XSERVICE_BASE_NAME.isParentOf(serviceName)) {
-                    final ServiceState.ValueProvider valueProvider = new ServiceState.ValueProvider() {
-                        @Override
-                        public Object getValue() {
-                            AbstractBundleRevision currentRevision = bundleState.getCurrentBundleRevision();
-                            ModuleClassLoader classLoader = null;
-                            try {
-                                classLoader = currentRevision.getModuleClassLoader();
-                            } catch (ModuleLoadException ex) {
-                                log.errorf(ex, "Cannot obtain class loader for: %s", currentRevision);
-                            }
-                            ClassLoader ctxLoader = SecurityActions.getContextClassLoader();
-                            try {
-                                SecurityActions.setContextClassLoader(classLoader);
-                                return controller.getValue();
-                            } finally {
-                                SecurityActions.setContextClassLoader(ctxLoader);
-                            }
-                        }
-                    };
-                    final long serviceId = getNextServiceId();
-                    final Object value = valueProvider.getValue();
-                    final AbstractBundleState auxBundle = injectedModuleManager.getValue().getBundleState(value.getClass());
-                    final AbstractBundleState owner = (auxBundle != null ? auxBundle : injectedBundleManager.getValue().getSystemBundle());
-                    final String auxName = (className != null ? className : serviceName.getSimpleName());
-                    ServiceState serviceState = new ServiceState(this, owner, serviceId, new String[] { auxName }, valueProvider, null);
-                    if (isMatchingService(bundleState, serviceState, auxName, filter, checkAssignable)) {
-                        resultset.add(serviceState);
-                    }
+        if (xserviceNames.isEmpty() == false) {
+            for (ServiceName serviceName : xserviceNames) {
+                ServiceState serviceState = getXServiceState(serviceName);
+                if (serviceState != null && isMatchingService(bundleState, serviceState, serviceName.getSimpleName(), filter, checkAssignable)) {
+                    resultlist.add(serviceState);
                 }
             }
+
+            // Sort the merged result
+            if (resultlist.size() > 1)
+                Collections.sort(resultlist, ServiceReferenceComparator.getInstance());
         }
 
-        // Sort the result
-        List<ServiceState> resultlist = new ArrayList<ServiceState>(resultset);
-        if (resultlist.size() > 1)
-            Collections.sort(resultlist, ServiceReferenceComparator.getInstance());
+        if (resultlist.isEmpty())
+            return Collections.emptyList();
 
         return Collections.unmodifiableList(resultlist);
     }
 
+    /*
+     * Get the stable service state for a service that was registered with MSC directly. The state is created on
+     * first lookup and kept until the controller is removed, so that its service id stays the same across lookups.
+     *
+     * The owner of the service is the bundle that loaded the class of the value. To find it, the value is first obtained
+     * with the framework class loader as TCCL. The values that are handed out are always obtained with the class
+     * loader of the owner as TCCL, independent of the bundle that did the lookup.
+     */
+    private ServiceState getXServiceState(ServiceName serviceName) {
+        final ServiceController<?> controller = serviceContainer.getService(serviceName);
+        XServiceEntry entry = xservices.get(serviceName);
+        if (entry != null) {
+            if (entry.controller == controller)
+                return entry.serviceState;
+
+            // The controller was replaced before the removal of the old one was noticed
+            entry.remove();
+        }
+        if (controller == null)
+            return null;
+
+        final AbstractBundleState systemBundle = injectedBundleManager.getValue().getSystemBundle();
+        final Object value = getXServiceValue(controller, systemBundle);
+        final AbstractBundleState auxBundle = injectedModuleManager.getValue().getBundleState(value.getClass());
+        final AbstractBundleState owner = (auxBundle != null ? auxBundle : systemBundle);
+        ServiceState.ValueProvider valueProvider = new ServiceState.ValueProvider() {
+            @Override
+            public Object getValue() {
+                return getXServiceValue(controller, owner);
+            }
+        };
+        long serviceId = getNextServiceId();
+        String[] clazzes = new String[] { serviceName.getSimpleName() };
+        ServiceState serviceState = new ServiceState(this, owner, serviceId, clazzes, valueProvider, null);
+
+        XServiceEntry newEntry = new XServiceEntry(serviceName, controller, serviceState);
+        entry = xservices.putIfAbsent(serviceName, newEntry);
+        if (entry != null)
+            return entry.serviceState;
+
+        controller.addListener(newEntry);
+        return serviceState;
+    }
+
+    private Object getXServiceValue(ServiceController<?> controller, AbstractBundleState bundleState) {
+        AbstractBundleRevision currentRevision = bundleState.getCurrentBundleRevision();
+        ModuleClassLoader classLoader = null;
+        try {
+            classLoader = currentRevision.getModuleClassLoader();
+        } catch (ModuleLoadException ex) {
+            log.errorf(ex, "Cannot obtain class loader for: %s", currentRevision);
+        }
+        ClassLoader ctxLoader = SecurityActions.getContextClassLoader();
+        try {
+            SecurityActions.setContextClassLoader(classLoader);
+            return controller.getValue();
+        } finally {
+            SecurityActions.setContextClassLoader(ctxLoader);
+        }
+    }
+
+    /*
+     * The stable state of a service that was registered with MSC directly.
+     * It listens to its controller and drops the state when the controller is removed.
+     */
+    final class XServiceEntry extends AbstractServiceListener<Object> {
+
+        final ServiceName serviceName;
+        final ServiceController<?> controller;
+        final ServiceState serviceState;
+
+        XServiceEntry(ServiceName serviceName, ServiceController<?> controller, ServiceState serviceState) {
+            this.serviceName = serviceName;
+            this.controller = controller;
+            this.serviceState = serviceState;
+        }
+
+        @Override
+        public void listenerAdded(ServiceController<? extends Object> controller) {
+            // The controller may have been removed before the listener was added
+            if (controller.getState() == State.REMOVED)
+                remove();
+        }
+
+        @Override
+        public void transition(ServiceController<? extends Object> controller, Transition transition) {
+            if (transition == Transition.REMOVING_to_REMOVED)
+                remove();
+        }
+
+        void remove() {
+            controller.removeListener(this);
+            if (xservices.remove(serviceName, this) && serviceState.claimUnregistration())
+                serviceState.unregistered();
+        }
+    }
+
     private boolean isMatchingService(AbstractBundleState bundleState, ServiceState serviceState, String clazzName, Filter filter, boolean checkAssignable) {
         if (serviceState.isUnregistered() || filter.match(serviceState) == false)
             return false;
@@ -336,6 +513,54 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
         return serviceState.isAssignableTo(bundleState, clazzName);
     }
 
+    /**
+     * Update the registry after the properties of the given service have been modified from the given previous
+     * to the given current properties. The caller serializes the modifications of a service.
+     */
+    void modifyService(ServiceState serviceState, ServiceProperties prevProperties, ServiceProperties currProperties) {
+        serviceRegistry.modifyService(serviceState, prevProperties, currProperties);
+    }
+
+    /*
+     * Mirror the service as an MSC service for each of its class names. A mirror service is installed by the
+     * registration that wins the putIfAbsent race and is kept for the lifetime of this plugin, so that services
+     * which come and go quickly do not install and remove MSC services.
+     */
+    private void addMirroredService(ServiceState serviceState) {
+        for (ServiceName serviceName : serviceState.getServiceNames()) {
+            List<ServiceState> serviceStates = mirroredServices.get(serviceName);
+            if (serviceStates == null) {
+                final List<ServiceState> newStates = new CopyOnWriteArrayList<ServiceState>();
+                serviceStates = mirroredServices.putIfAbsent(serviceName, newStates);
+                if (serviceStates == null) {
+                    serviceStates = newStates;
+                    Service<List<ServiceState>> service = new AbstractService<List<ServiceState>>() {
+                        public List<ServiceState> getValue() throws IllegalStateException {
+                            // [TODO] for injection to work this needs to be the Object value
+                            return newStates;
+                        }
+                    };
+                    try {
+                        ServiceBuilder<List<ServiceState>> builder = serviceTarget.addService(serviceName, service);
+                        builder.install();
+                    } catch (RuntimeException ex) {
+                        log.errorf(ex, "Cannot install service: %s", serviceName);
+                    }
+                }
+            }
+            serviceStates.add(serviceState);
+        }
+    }
+
+    private void removeMirroredService(ServiceState serviceState) {
+        for (ServiceName serviceName : serviceState.getServiceNames()) {
+            log.debugf("Unregister service: %s", serviceName);
+            List<ServiceState> serviceStates = mirroredServices.get(serviceName);
+            if (serviceStates != null)
+                serviceStates.remove(serviceState);
+        }
+    }
+
     /**
      * Returns the service object referenced by the specified <code>ServiceReference</code> object.
      *
@@ -347,17 +572,15 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
             return null;
 
         // Add the given service ref to the list of used services
-        bundleState.addServiceInUse(serviceState);
-        serviceState.addUsingBundle(bundleState);
+        if (serviceState.addUsingBundle(bundleState) < 0)
+            return null;
 
         Object value = serviceState.getScopedValue(bundleState);
 
         // If the factory returned an invalid value
         // restore the service usage counts
-        if (value == null) {
-            bundleState.removeServiceInUse(serviceState);
+        if (value == null)
             serviceState.removeUsingBundle(bundleState);
-        }
 
         return value;
     }
@@ -365,44 +588,59 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
     /**
      * Unregister the given service.
      */
-    @SuppressWarnings("unchecked")
     void unregisterService(ServiceState serviceState) {
-        synchronized (serviceState) {
-
-            if (serviceState.isUnregistered())
-                return;
-
-            for (ServiceName serviceName : serviceState.getServiceNames()) {
-                log.debugf("Unregister service: %s", serviceName);
-                try {
-                    ServiceController<?> controller = serviceContainer.getService(serviceName);
-                    if (controller != null) {
-                        List<ServiceState> serviceStates = (List<ServiceState>) controller.getValue();
-                        serviceStates.remove(serviceState);
-                        if (serviceStates.isEmpty()) {
-                            BundleManager bundleManager = injectedBundleManager.getValue();
-                            bundleManager.setServiceMode(controller, Mode.REMOVE);
-                        }
-                    }
-                } catch (RuntimeException ex) {
-                    log.errorf(ex, "Cannot remove service: %s", serviceName);
-                }
-            }
+        unregisterServices(Collections.singletonList(serviceState));
+    }
 
-            AbstractBundleState serviceOwner = serviceState.getServiceOwner();
+    /**
+     * Unregister the given services in one step. The registry is updated once and the UNREGISTERING events are
+     * delivered in list order before any of the services has completed unregistering.
+     */
+    void unregisterServices(List<ServiceState> serviceStates) {
+        List<ServiceState> unregistering = new ArrayList<ServiceState>(serviceStates.size());
+        for (ServiceState serviceState : serviceStates) {
+            if (serviceState.isUnregistered() == false && serviceState.claimUnregistration())
+                unregistering.add(serviceState);
+        }
+        if (unregistering.isEmpty())
+            return;
+
+        serviceRegistry.removeServices(unregistering);
+        hookRegistry.servicesChanged(unregistering);
+        if (mirroredServices != null) {
+            for (ServiceState serviceState : unregistering)
+                removeMirroredService(serviceState);
+        }
 
-            // This event is synchronously delivered before the service has completed unregistering.
-            FrameworkEventsPlugin eventsPlugin = injectedFrameworkEvents.getValue();
-            eventsPlugin.fireServiceEvent(serviceOwner, ServiceEvent.UNREGISTERING, serviceState);
+        // This event is synchronously delivered before the service has completed unregistering.
+        FrameworkEventsPlugin eventsPlugin = injectedFrameworkEvents.getValue();
+        for (ServiceState serviceState : unregistering) {
+            eventsPlugin.fireServiceEvent(serviceState.getServiceOwner(), ServiceEvent.UNREGISTERING, serviceState);
+        }
+
+        Map<AbstractBundleState, List<ServiceState>> servicesByOwner = new LinkedHashMap<AbstractBundleState, List<ServiceState>>();
+        for (ServiceState serviceState : unregistering) {
+            AbstractBundleState serviceOwner = serviceState.getServiceOwner();
+            List<ServiceState> ownerServices = servicesByOwner.get(serviceOwner);
+            if (ownerServices == null) {
+                ownerServices = new ArrayList<ServiceState>();
+                servicesByOwner.put(serviceOwner, ownerServices);
+            }
+            ownerServices.add(serviceState);
 
             // Remove from using bundles
             for (AbstractBundleState bundleState : serviceState.getUsingBundlesInternal()) {
                 while (ungetService(bundleState, serviceState)) {
                 }
             }
+        }
 
-            // Remove from owner bundle
-            serviceOwner.removeRegisteredService(serviceState);
+        // Remove from owner bundle
+        for (Map.Entry<AbstractBundleState, List<ServiceState>> entry : servicesByOwner.entrySet()) {
+            entry.getKey().removeRegisteredServices(entry.getValue());
+        }
+        for (ServiceState serviceState : unregistering) {
+            serviceState.unregistered();
         }
     }
 
@@ -417,10 +655,7 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
     boolean ungetService(AbstractBundleState bundleState, ServiceState serviceState) {
         serviceState.ungetScopedValue(bundleState);
 
-        int useCount = bundleState.removeServiceInUse(serviceState);
-        if (useCount == 0)
-            serviceState.removeUsingBundle(bundleState);
-
+        int useCount = serviceState.removeUsingBundle(bundleState);
         return useCount >= 0;
     }
 
@@ -431,9 +666,8 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
      * reverse compareTo ordering of their Service References.
      */
     private List<ServiceState> processFindHooks(AbstractBundleState bundle, String clazz, String filterStr, boolean checkAssignable, List<ServiceState> serviceStates) {
-        BundleContext context = bundle.getBundleContext();
-        List<ServiceState> hookRefs = getServiceReferencesInternal(bundle, FindHook.class.getName(), NoFilter.INSTANCE, true);
-        if (hookRefs.isEmpty())
+        List<FindHook> hooks = hookRegistry.getFindHooks();
+        if (hooks.isEmpty())
             return serviceStates;
 
         // Event and Find Hooks can not be used to hide the services from the framework.
@@ -442,13 +676,7 @@ final class ServiceManagerPlugin extends AbstractPluginService<ServiceManagerPlu
 
         // The order in which the find hooks are called is the reverse compareTo ordering of
         // their ServiceReferences. That is, the service with the highest ranking number must be called first.
-        List<ServiceReference> sortedHookRefs = new ArrayList<ServiceReference>(hookRefs);
-        Collections.reverse(sortedHookRefs);
-
-        List<FindHook> hooks = new ArrayList<FindHook>();
-        for (ServiceReference hookRef : sortedHookRefs)
-            hooks.add((FindHook) context.getService(hookRef));
-
+        BundleContext context = bundle.getBundleContext();
         Collection<ServiceReference> hookParam = new ArrayList<ServiceReference>();
         for (ServiceState aux : serviceStates)
             hookParam.add(aux.getReference());
@@ -0,0 +1,152 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
+import org.osgi.framework.Constants;
+
+import java.util.Arrays;
+import java.util.Dictionary;
+import java.util.Enumeration;
+import java.util.Hashtable;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * The immutable properties of a service.
+ *
+ * The keys are lowercased once and kept sorted together with their values in flat arrays. The service ranking is
+ * read and type checked once, so that comparing services does not look up properties.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class ServiceProperties {
+
+    private static final String SERVICE_ID_KEY = Constants.SERVICE_ID.toLowerCase(Locale.ENGLISH);
+    private static final String OBJECTCLASS_KEY = Constants.OBJECTCLASS.toLowerCase(Locale.ENGLISH);
+
+    private final String[] keys;
+    private final String[] lowerKeys;
+    private final Object[] values;
+    private final int ranking;
+
+    /**
+     * Create the properties from the given dictionary, which may be null. The service id and object class
+     * replace any values for those keys in the dictionary.
+     *
+     * @throws IllegalArgumentException if the dictionary contains case variants of the same key
+     */
+    @SuppressWarnings("rawtypes")
+    ServiceProperties(Dictionary properties, long serviceId, String[] classNames) {
+        Map<String, Object[]> sorted = new TreeMap<String, Object[]>();
+        sorted.put(SERVICE_ID_KEY, new Object[] { Constants.SERVICE_ID, Long.valueOf(serviceId) });
+        sorted.put(OBJECTCLASS_KEY, new Object[] { Constants.OBJECTCLASS, classNames });
+        if (properties != null) {
+            Enumeration keys = properties.keys();
+            while (keys.hasMoreElements()) {
+                Object key = keys.nextElement();
+                if (key instanceof String == false)
+                    throw new IllegalArgumentException("Invalid property key: " + key);
+
+                String lowerKey = ((String) key).toLowerCase(Locale.ENGLISH);
+                if (lowerKey.equals(SERVICE_ID_KEY) || lowerKey.equals(OBJECTCLASS_KEY))
+                    continue;
+                if (sorted.containsKey(lowerKey))
+                    throw new IllegalArgumentException("Case variants of the same key name: " + key);
+
+                sorted.put(lowerKey, new Object[] { key, properties.get(key) });
+            }
+        }
+
+        int size = sorted.size();
+        this.keys = new String[size];
+        this.lowerKeys = new String[size];
+        this.values = new Object[size];
+        int index = 0;
+        for (Map.Entry<String, Object[]> entry : sorted.entrySet()) {
+            lowerKeys[index] = entry.getKey();
+            keys[index] = (String) entry.getValue()[0];
+            values[index] = entry.getValue()[1];
+            index++;
+        }
+
+        Object rankingValue = getLowerCase(Constants.SERVICE_RANKING);
+        this.ranking = (rankingValue instanceof Integer ? ((Integer) rankingValue).intValue() : 0);
+    }
+
+    /**
+     * Get the value for the given key, ignoring case.
+     */
+    Object get(String key) {
+        if (key == null)
+            return null;
+
+        // Most keys are given in lower case
+        int index = Arrays.binarySearch(lowerKeys, key);
+        if (index >= 0)
+            return values[index];
+
+        for (int i = 0; i < keys.length; i++) {
+            if (keys[i].equalsIgnoreCase(key))
+                return values[i];
+        }
+        return null;
+    }
+
+    /**
+     * Get the value for the given key, which must already be lower case.
+     */
+    Object getLowerCase(String lowerKey) {
+        int index = Arrays.binarySearch(lowerKeys, lowerKey);
+        return index >= 0 ? values[index] : null;
+    }
+
+    /**
+     * Get the keys in the case they were registered with.
+     */
+    String[] getKeys() {
+        return keys.clone();
+    }
+
+    int getServiceRanking() {
+        return ranking;
+    }
+
+    /**
+     * Get the properties as a case insensitive dictionary.
+     */
+    @SuppressWarnings("unchecked")
+    Dictionary<String, Object> toDictionary() {
+        return new CaseInsensitiveDictionary(toHashtable());
+    }
+
+    Hashtable<String, Object> toHashtable() {
+        Hashtable<String, Object> result = new Hashtable<String, Object>();
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != null)
+                result.put(keys[i], values[i]);
+        }
+        return result;
+    }
+}
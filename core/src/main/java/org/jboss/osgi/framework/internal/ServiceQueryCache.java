@@ -0,0 +1,145 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.osgi.framework.Filter;
+
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A bounded cache of service lookup results.
+ *
+ * A result is keyed by the calling bundle, the class name, the filter and whether assignability was checked. It is stored
+ * together with the {@link ServiceRegistry} generation of the class name that was read before the lookup was done. A cached
+ * result is only returned while that generation is still current.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class ServiceQueryCache {
+
+    private final ConcurrentMap<QueryKey, CachedResult> results = new ConcurrentHashMap<QueryKey, CachedResult>();
+    private final AtomicLong hitCount = new AtomicLong();
+    private final AtomicLong missCount = new AtomicLong();
+    private final int maxSize;
+
+    ServiceQueryCache(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("Invalid cache size: " + maxSize);
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * Get the cached result or null if there is no result for the given generation.
+     */
+    List<ServiceState> getResult(AbstractBundleState bundleState, String className, Filter filter, boolean checkAssignable, long generation) {
+        CachedResult cached = results.get(new QueryKey(bundleState, className, filter, checkAssignable));
+        if (cached != null && cached.generation == generation) {
+            hitCount.incrementAndGet();
+            return cached.result;
+        }
+        missCount.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Cache the given immutable result for the given generation.
+     */
+    void putResult(AbstractBundleState bundleState, String className, Filter filter, boolean checkAssignable, long generation, List<ServiceState> result) {
+        Iterator<QueryKey> it = results.keySet().iterator();
+        while (results.size() >= maxSize && it.hasNext()) {
+            it.next();
+            it.remove();
+        }
+        results.put(new QueryKey(bundleState, className, filter, checkAssignable), new CachedResult(generation, result));
+    }
+
+    /**
+     * Remove the cached results for the given calling bundle.
+     */
+    void removeResults(AbstractBundleState bundleState) {
+        Iterator<QueryKey> it = results.keySet().iterator();
+        while (it.hasNext()) {
+            if (it.next().bundleState == bundleState)
+                it.remove();
+        }
+    }
+
+    long getHitCount() {
+        return hitCount.get();
+    }
+
+    long getMissCount() {
+        return missCount.get();
+    }
+
+    void clear() {
+        results.clear();
+    }
+
+    static final class QueryKey {
+
+        final AbstractBundleState bundleState;
+        final String className;
+        final Filter filter;
+        final boolean checkAssignable;
+
+        QueryKey(AbstractBundleState bundleState, String className, Filter filter, boolean checkAssignable) {
+            this.bundleState = bundleState;
+            this.className = className;
+            this.filter = filter;
+            this.checkAssignable = checkAssignable;
+        }
+
+        @Override
+        public int hashCode() {
+            int result = bundleState.hashCode();
+            result = 31 * result + className.hashCode();
+            result = 31 * result + filter.hashCode();
+            return checkAssignable ? result : ~result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (obj instanceof QueryKey == false)
+                return false;
+            QueryKey other = (QueryKey) obj;
+            return bundleState == other.bundleState && checkAssignable == other.checkAssignable && className.equals(other.className)
+                    && filter.equals(other.filter);
+        }
+    }
+
+    static final class CachedResult {
+
+        final long generation;
+        final List<ServiceState> result;
+
+        CachedResult(long generation, List<ServiceState> result) {
+            this.generation = generation;
+            this.result = result;
+        }
+    }
+}
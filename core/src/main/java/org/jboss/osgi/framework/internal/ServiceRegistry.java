@@ -0,0 +1,523 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.osgi.framework.internal.CompiledFilter.AndNode;
+import org.jboss.osgi.framework.internal.CompiledFilter.CompareNode;
+import org.jboss.osgi.framework.internal.CompiledFilter.Node;
+import org.jboss.osgi.framework.internal.CompiledFilter.PresentNode;
+import org.osgi.framework.Constants;
+import org.osgi.framework.Filter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The in-memory registry of OSGi services.
+ *
+ * Services are indexed by the class names under which they were registered. Every index entry is an immutable array that is
+ * kept in {@link ServiceReferenceComparator} order, so that a lookup can walk a consistent snapshot without copying or
+ * sorting. Updates replace the array of the affected entry with compare-and-set semantics.
+ *
+ * Services are also indexed by the values of a configurable set of property keys. Equality and presence terms of a
+ * {@link CompiledFilter} on these keys narrow down the candidates before the full filter is matched.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+final class ServiceRegistry {
+
+    static final ServiceState[] NO_SERVICES = new ServiceState[0];
+
+    /** The default property keys that are indexed */
+    static final String DEFAULT_INDEX_KEYS = Constants.SERVICE_PID;
+
+    // The index entry for services that have the property at all
+    private static final Object ANY_VALUE = new Object();
+    // The index entry for services that have property values that are not strings
+    private static final Object OTHER_VALUES = new Object();
+    // The lower case objectClass key
+    private static final String OBJECTCLASS_KEY = Constants.OBJECTCLASS.toLowerCase(Locale.ENGLISH);
+
+    // The services by class name
+    private final ConcurrentMap<String, ServiceState[]> servicesByClass = new ConcurrentHashMap<String, ServiceState[]>();
+    // The services by indexed property key and value
+    private final ConcurrentMap<String, ConcurrentMap<Object, ServiceState[]>> servicesByProperty = new ConcurrentHashMap<String, ConcurrentMap<Object, ServiceState[]>>();
+    // All registered services
+    private final AtomicReference<ServiceState[]> allServices = new AtomicReference<ServiceState[]>(NO_SERVICES);
+    // The modification generations by class name
+    private final ConcurrentMap<String, AtomicLong> generations = new ConcurrentHashMap<String, AtomicLong>();
+
+    ServiceRegistry(Collection<String> indexKeys) {
+        for (String key : indexKeys) {
+            String lowerKey = key.trim().toLowerCase(Locale.ENGLISH);
+            if (lowerKey.length() > 0 && lowerKey.equals(OBJECTCLASS_KEY) == false)
+                servicesByProperty.put(lowerKey, new ConcurrentHashMap<Object, ServiceState[]>());
+        }
+    }
+
+    /**
+     * Get the services registered under the given class name in ascending {@link ServiceReferenceComparator} order.
+     * The returned array must not be modified.
+     */
+    ServiceState[] getServices(String className) {
+        ServiceState[] result = servicesByClass.get(className);
+        return result != null ? result : NO_SERVICES;
+    }
+
+    /**
+     * Get all registered services in ascending {@link ServiceReferenceComparator} order.
+     * The returned array must not be modified.
+     */
+    ServiceState[] getAllServices() {
+        return allServices.get();
+    }
+
+    /**
+     * Get the candidate services for the given class name and filter in ascending {@link ServiceReferenceComparator} order.
+     *
+     * The result is the smallest of the class entry and the index entries for the equality and presence terms of the
+     * filter. It may contain services that do not match the filter or that were not registered under the given class name.
+     * The returned array must not be modified.
+     */
+    ServiceState[] getCandidates(String className, Filter filter) {
+        ServiceState[] result = (className != null ? getServices(className) : getAllServices());
+        if (result.length > 1 && filter instanceof CompiledFilter) {
+            Node root = ((CompiledFilter) filter).getRoot();
+            ServiceState[] candidates = (root != null ? getCandidates(root) : null);
+            if (candidates != null && candidates.length < result.length)
+                result = candidates;
+        }
+        return result;
+    }
+
+    boolean hasServices(String className) {
+        return servicesByClass.containsKey(className);
+    }
+
+    /**
+     * Get the generation of the services registered under the given class name. The generation changes after a service
+     * of that class has been registered, modified or unregistered.
+     */
+    long getGeneration(String className) {
+        AtomicLong generation = generations.get(className);
+        return generation != null ? generation.get() : 0;
+    }
+
+    void addService(ServiceState serviceState) {
+        for (String className : serviceState.getClassNames()) {
+            addToEntry(servicesByClass, className, serviceState);
+        }
+        for (String key : servicesByProperty.keySet()) {
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(key);
+            for (Object value : getIndexValues(serviceState.getProperty(key))) {
+                addToEntry(entries, value, serviceState);
+            }
+        }
+        while (true) {
+            ServiceState[] current = allServices.get();
+            if (allServices.compareAndSet(current, insert(current, serviceState)))
+                break;
+        }
+        incrementGeneration(serviceState);
+    }
+
+    void removeService(ServiceState serviceState) {
+        for (String className : serviceState.getClassNames()) {
+            removeFromEntry(servicesByClass, className, serviceState);
+        }
+        for (String key : servicesByProperty.keySet()) {
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(key);
+            for (Object value : getIndexValues(serviceState.getProperty(key))) {
+                removeFromEntry(entries, value, serviceState);
+            }
+        }
+        while (true) {
+            ServiceState[] current = allServices.get();
+            ServiceState[] result = remove(current, serviceState);
+            if (result == current || allServices.compareAndSet(current, result))
+                break;
+        }
+        incrementGeneration(serviceState);
+    }
+
+    /**
+     * Add the given services with a single update per index entry.
+     */
+    void addServices(List<ServiceState> serviceStates) {
+        if (serviceStates.size() == 1) {
+            addService(serviceStates.get(0));
+            return;
+        }
+        Map<String, List<ServiceState>> byClass = groupByClassName(serviceStates);
+        for (Map.Entry<String, List<ServiceState>> entry : byClass.entrySet()) {
+            addAllToEntry(servicesByClass, entry.getKey(), entry.getValue());
+        }
+        for (String key : servicesByProperty.keySet()) {
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(key);
+            for (Map.Entry<Object, List<ServiceState>> entry : groupByIndexValue(serviceStates, key).entrySet()) {
+                addAllToEntry(entries, entry.getKey(), entry.getValue());
+            }
+        }
+        while (true) {
+            ServiceState[] current = allServices.get();
+            if (allServices.compareAndSet(current, insertAll(current, serviceStates)))
+                break;
+        }
+        for (String className : byClass.keySet()) {
+            incrementGeneration(className);
+        }
+    }
+
+    /**
+     * Remove the given services with a single update per index entry.
+     */
+    void removeServices(List<ServiceState> serviceStates) {
+        if (serviceStates.size() == 1) {
+            removeService(serviceStates.get(0));
+            return;
+        }
+        Map<String, List<ServiceState>> byClass = groupByClassName(serviceStates);
+        for (Map.Entry<String, List<ServiceState>> entry : byClass.entrySet()) {
+            removeAllFromEntry(servicesByClass, entry.getKey(), entry.getValue());
+        }
+        for (String key : servicesByProperty.keySet()) {
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(key);
+            for (Map.Entry<Object, List<ServiceState>> entry : groupByIndexValue(serviceStates, key).entrySet()) {
+                removeAllFromEntry(entries, entry.getKey(), entry.getValue());
+            }
+        }
+        while (true) {
+            ServiceState[] current = allServices.get();
+            ServiceState[] result = removeAll(current, serviceStates);
+            if (result == current || allServices.compareAndSet(current, result))
+                break;
+        }
+        for (String className : byClass.keySet()) {
+            incrementGeneration(className);
+        }
+    }
+
+    /**
+     * Update the property indexes and restore the ranking order after the properties of the given service have been modified.
+     * The modifications of a service must not run concurrently, and the index is updated from the exact pair of properties
+     * that was swapped.
+     */
+    void modifyService(ServiceState serviceState, ServiceProperties prevProperties, ServiceProperties currProperties) {
+        // Add the new index entries before the stale ones are removed,
+        // so that concurrent lookups always see a superset of the candidates
+        for (String key : servicesByProperty.keySet()) {
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(key);
+            Set<Object> prevValues = getIndexValues(prevProperties != null ? prevProperties.get(key) : null);
+            Set<Object> currValues = getIndexValues(currProperties.get(key));
+            for (Object value : currValues) {
+                if (prevValues.contains(value) == false)
+                    addToEntry(entries, value, serviceState);
+            }
+            for (Object value : prevValues) {
+                if (currValues.contains(value) == false)
+                    removeFromEntry(entries, value, serviceState);
+            }
+        }
+
+        int prevRanking = (prevProperties != null ? prevProperties.getServiceRanking() : 0);
+        if (prevRanking != currProperties.getServiceRanking()) {
+            for (String className : serviceState.getClassNames()) {
+                sortEntry(servicesByClass, className);
+            }
+            for (String key : servicesByProperty.keySet()) {
+                ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(key);
+                for (Object value : getIndexValues(currProperties.get(key))) {
+                    sortEntry(entries, value);
+                }
+            }
+            while (true) {
+                ServiceState[] current = allServices.get();
+                if (allServices.compareAndSet(current, sort(current)))
+                    break;
+            }
+        }
+        incrementGeneration(serviceState);
+    }
+
+    // The generation must change after the index has been updated
+    private void incrementGeneration(ServiceState serviceState) {
+        for (String className : serviceState.getClassNames()) {
+            incrementGeneration(className);
+        }
+    }
+
+    private void incrementGeneration(String className) {
+        AtomicLong generation = generations.get(className);
+        if (generation == null) {
+            AtomicLong existing = generations.putIfAbsent(className, generation = new AtomicLong());
+            if (existing != null)
+                generation = existing;
+        }
+        generation.incrementAndGet();
+    }
+
+    void clear() {
+        servicesByClass.clear();
+        for (ConcurrentMap<Object, ServiceState[]> entries : servicesByProperty.values()) {
+            entries.clear();
+        }
+        allServices.set(NO_SERVICES);
+        generations.clear();
+    }
+
+    /**
+     * Get the candidates for the given filter node or null if the node cannot be answered from an index.
+     */
+    private ServiceState[] getCandidates(Node node) {
+        if (node instanceof AndNode) {
+            ServiceState[] result = null;
+            for (Node operand : ((AndNode) node).operands) {
+                ServiceState[] candidates = getCandidates(operand);
+                if (candidates != null && (result == null || candidates.length < result.length))
+                    result = candidates;
+            }
+            return result;
+        }
+        if (node instanceof CompareNode) {
+            CompareNode compareNode = (CompareNode) node;
+            if (compareNode.operation != CompareNode.EQUAL)
+                return null;
+            if (compareNode.key.equals(OBJECTCLASS_KEY))
+                return getServices(compareNode.value);
+
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(compareNode.key);
+            if (entries == null)
+                return null;
+
+            // Values that are not strings are matched by the filter
+            ServiceState[] result = entries.get(compareNode.value);
+            ServiceState[] others = entries.get(OTHER_VALUES);
+            if (others == null)
+                return result != null ? result : NO_SERVICES;
+            if (result == null)
+                return others;
+
+            Set<ServiceState> union = new HashSet<ServiceState>(Arrays.asList(result));
+            union.addAll(Arrays.asList(others));
+            return sort(union.toArray(new ServiceState[union.size()]));
+        }
+        if (node instanceof PresentNode) {
+            PresentNode presentNode = (PresentNode) node;
+            if (presentNode.key.equals(OBJECTCLASS_KEY))
+                return getAllServices();
+
+            ConcurrentMap<Object, ServiceState[]> entries = servicesByProperty.get(presentNode.key);
+            if (entries == null)
+                return null;
+
+            ServiceState[] result = entries.get(ANY_VALUE);
+            return result != null ? result : NO_SERVICES;
+        }
+        return null;
+    }
+
+    /**
+     * Get the index entries for the given property value.
+     */
+    private static Set<Object> getIndexValues(Object value) {
+        if (value == null)
+            return Collections.emptySet();
+
+        Set<Object> result = new HashSet<Object>();
+        result.add(ANY_VALUE);
+        if (value instanceof String) {
+            result.add(value);
+        } else if (value instanceof Object[]) {
+            for (Object element : (Object[]) value) {
+                result.add(element instanceof String ? element : OTHER_VALUES);
+            }
+        } else if (value instanceof Collection) {
+            for (Object element : (Collection<?>) value) {
+                result.add(element instanceof String ? element : OTHER_VALUES);
+            }
+        } else {
+            result.add(OTHER_VALUES);
+        }
+        return result;
+    }
+
+    private static <K> void addToEntry(ConcurrentMap<K, ServiceState[]> map, K key, ServiceState serviceState) {
+        while (true) {
+            ServiceState[] current = map.get(key);
+            if (current == null) {
+                if (map.putIfAbsent(key, new ServiceState[] { serviceState }) == null)
+                    break;
+            } else if (map.replace(key, current, insert(current, serviceState))) {
+                break;
+            }
+        }
+    }
+
+    private static <K> void removeFromEntry(ConcurrentMap<K, ServiceState[]> map, K key, ServiceState serviceState) {
+        while (true) {
+            ServiceState[] current = map.get(key);
+            if (current == null)
+                break;
+            ServiceState[] result = remove(current, serviceState);
+            if (result == current)
+                break;
+            if (result.length == 0 && map.remove(key, current))
+                break;
+            if (result.length > 0 && map.replace(key, current, result))
+                break;
+        }
+    }
+
+    private static Map<String, List<ServiceState>> groupByClassName(List<ServiceState> serviceStates) {
+        Map<String, List<ServiceState>> result = new HashMap<String, List<ServiceState>>();
+        for (ServiceState serviceState : serviceStates) {
+            for (String className : serviceState.getClassNames()) {
+                addToGroup(result, className, serviceState);
+            }
+        }
+        return result;
+    }
+
+    private static Map<Object, List<ServiceState>> groupByIndexValue(List<ServiceState> serviceStates, String key) {
+        Map<Object, List<ServiceState>> result = new HashMap<Object, List<ServiceState>>();
+        for (ServiceState serviceState : serviceStates) {
+            for (Object value : getIndexValues(serviceState.getProperty(key))) {
+                addToGroup(result, value, serviceState);
+            }
+        }
+        return result;
+    }
+
+    private static <K> void addToGroup(Map<K, List<ServiceState>> groups, K key, ServiceState serviceState) {
+        List<ServiceState> group = groups.get(key);
+        if (group == null) {
+            group = new ArrayList<ServiceState>();
+            groups.put(key, group);
+        }
+        // A service may be registered more than once under the same class name
+        if (group.isEmpty() || group.get(group.size() - 1) != serviceState)
+            group.add(serviceState);
+    }
+
+    private static <K> void addAllToEntry(ConcurrentMap<K, ServiceState[]> map, K key, List<ServiceState> serviceStates) {
+        while (true) {
+            ServiceState[] current = map.get(key);
+            if (current == null) {
+                if (map.putIfAbsent(key, insertAll(NO_SERVICES, serviceStates)) == null)
+                    break;
+            } else if (map.replace(key, current, insertAll(current, serviceStates))) {
+                break;
+            }
+        }
+    }
+
+    private static <K> void removeAllFromEntry(ConcurrentMap<K, ServiceState[]> map, K key, List<ServiceState> serviceStates) {
+        while (true) {
+            ServiceState[] current = map.get(key);
+            if (current == null)
+                break;
+            ServiceState[] result = removeAll(current, serviceStates);
+            if (result == current)
+                break;
+            if (result.length == 0 && map.remove(key, current))
+                break;
+            if (result.length > 0 && map.replace(key, current, result))
+                break;
+        }
+    }
+
+    private static <K> void sortEntry(ConcurrentMap<K, ServiceState[]> map, K key) {
+        while (true) {
+            ServiceState[] current = map.get(key);
+            if (current == null || map.replace(key, current, sort(current)))
+                break;
+        }
+    }
+
+    private static ServiceState[] insert(ServiceState[] current, ServiceState serviceState) {
+        ServiceState[] result = new ServiceState[current.length + 1];
+        int index = Arrays.binarySearch(current, serviceState, ServiceReferenceComparator.getInstance());
+        int insertAt = (index < 0 ? -(index + 1) : index);
+        System.arraycopy(current, 0, result, 0, insertAt);
+        result[insertAt] = serviceState;
+        System.arraycopy(current, insertAt, result, insertAt + 1, current.length - insertAt);
+        return result;
+    }
+
+    private static ServiceState[] remove(ServiceState[] current, ServiceState serviceState) {
+        for (int i = 0; i < current.length; i++) {
+            if (current[i] == serviceState) {
+                if (current.length == 1)
+                    return NO_SERVICES;
+                ServiceState[] result = new ServiceState[current.length - 1];
+                System.arraycopy(current, 0, result, 0, i);
+                System.arraycopy(current, i + 1, result, i, current.length - i - 1);
+                return result;
+            }
+        }
+        return current;
+    }
+
+    private static ServiceState[] insertAll(ServiceState[] current, List<ServiceState> serviceStates) {
+        ServiceState[] result = new ServiceState[current.length + serviceStates.size()];
+        System.arraycopy(current, 0, result, 0, current.length);
+        int index = current.length;
+        for (ServiceState serviceState : serviceStates) {
+            result[index++] = serviceState;
+        }
+        Arrays.sort(result, ServiceReferenceComparator.getInstance());
+        return result;
+    }
+
+    private static ServiceState[] removeAll(ServiceState[] current, List<ServiceState> serviceStates) {
+        Set<ServiceState> removed = Collections.newSetFromMap(new IdentityHashMap<ServiceState, Boolean>());
+        removed.addAll(serviceStates);
+        List<ServiceState> result = new ArrayList<ServiceState>(current.length);
+        for (ServiceState aux : current) {
+            if (removed.contains(aux) == false)
+                result.add(aux);
+        }
+        if (result.size() == current.length)
+            return current;
+        return result.isEmpty() ? NO_SERVICES : result.toArray(new ServiceState[result.size()]);
+    }
+
+    private static ServiceState[] sort(ServiceState[] current) {
+        ServiceState[] result = current.clone();
+        Arrays.sort(result, ServiceReferenceComparator.getInstance());
+        return result;
+    }
+}
@@ -21,10 +21,12 @@
  */
 package org.jboss.osgi.framework.internal;
 
+import static org.osgi.framework.resource.ResourceConstants.WIRING_PACKAGE_NAMESPACE;
+
 import org.jboss.logging.Logger;
 import org.jboss.msc.service.ServiceName;
 import org.jboss.osgi.framework.Services;
-import org.jboss.osgi.metadata.CaseInsensitiveDictionary;
+import org.jboss.osgi.resolver.XPackageRequirement;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
@@ -33,19 +35,17 @@ import org.osgi.framework.ServiceException;
 import org.osgi.framework.ServiceFactory;
 import org.osgi.framework.ServiceReference;
 import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.resource.Requirement;
 
-import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.Dictionary;
-import java.util.Enumeration;
-import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Hashtable;
-import java.util.List;
-import java.util.Map;
+import java.util.LinkedHashSet;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 
 /**
@@ -62,19 +62,20 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
 
     private final ServiceManagerPlugin serviceManager;
     private final AbstractBundleState ownerBundle;
-    private final Set<ServiceName> serviceNames;
+    private final String[] classNames;
     private final long serviceId;
     private final ValueProvider valueProvider;
     private final ServiceReference reference;
-    private ServiceRegistration registration;
-    private Set<AbstractBundleState> usingBundles;
-    private Map<Long, ServiceFactoryHolder> factoryValues;
+    private volatile ServiceRegistration registration;
+    private final ConcurrentLongMap<ServiceUsage> usages = new ConcurrentLongMap<ServiceUsage>();
+    private final ConcurrentLongMap<ServiceFactoryHolder> factoryValues = new ConcurrentLongMap<ServiceFactoryHolder>();
+    private final AtomicBoolean unregistering = new AtomicBoolean();
 
-    // The properties
-    private CaseInsensitiveDictionary prevProperties;
-    private CaseInsensitiveDictionary currProperties;
+    // The properties, swapped and indexed one modification at a time
+    private final Object propertiesLock = new Object();
+    private volatile ServiceProperties prevProperties;
+    private volatile ServiceProperties currProperties;
 
-    @SuppressWarnings("unchecked")
     ServiceState(ServiceManagerPlugin serviceManager, AbstractBundleState owner, long serviceId, String[] classNames, ValueProvider valueProvider, Dictionary properties) {
         if (serviceManager == null)
             throw new IllegalArgumentException("Null serviceManager");
@@ -93,22 +94,18 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
         if (checkValidClassNames(owner, classNames, valueProvider.getValue()) == false)
             throw new IllegalArgumentException("Invalid object class in: " + Arrays.asList(classNames));
 
-        // Generate the service names
-        serviceNames = new HashSet<ServiceName>(classNames.length);
         for (int i = 0; i < classNames.length; i++) {
             if (classNames[i] == null)
                 throw new IllegalArgumentException("Null service class at index: " + i);
-
-            ServiceName serviceName = ServiceState.createServiceName(classNames[i]);
-            serviceNames.add(serviceName);
         }
 
-        if (properties == null)
-            properties = new Hashtable();
+        // A class name that is given more than once is registered once
+        Set<String> uniqueNames = new LinkedHashSet<String>(Arrays.asList(classNames));
+        if (uniqueNames.size() < classNames.length)
+            classNames = uniqueNames.toArray(new String[uniqueNames.size()]);
+        this.classNames = classNames;
 
-        properties.put(Constants.SERVICE_ID, serviceId);
-        properties.put(Constants.OBJECTCLASS, classNames);
-        this.currProperties = new CaseInsensitiveDictionary(properties);
+        this.currProperties = new ServiceProperties(properties, serviceId, classNames);
 
         // Create the {@link ServiceRegistration} and {@link ServiceReference}
         this.registration = new ServiceRegistrationWrapper(this);
@@ -156,14 +153,13 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
         // Get the ServiceFactory value
         Object result = null;
         try {
-            if (factoryValues == null)
-                factoryValues = new HashMap<Long, ServiceFactoryHolder>();
-
             ServiceFactoryHolder factoryHolder = getFactoryHolder(bundleState);
             if (factoryHolder == null) {
                 ServiceFactory factory = (ServiceFactory) value;
                 factoryHolder = new ServiceFactoryHolder(bundleState, factory);
-                factoryValues.put(bundleState.getBundleId(), factoryHolder);
+                ServiceFactoryHolder existing = factoryValues.putIfAbsent(bundleState.getBundleId(), factoryHolder);
+                if (existing != null)
+                    factoryHolder = existing;
             }
 
             result = factoryHolder.getService();
@@ -202,14 +198,29 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
     }
 
     private ServiceFactoryHolder getFactoryHolder(AbstractBundleState bundleState) {
-        return factoryValues != null ? factoryValues.get(bundleState.getBundleId()) : null;
+        return factoryValues.get(bundleState.getBundleId());
     }
 
     ServiceRegistration getRegistration() {
         return registration;
     }
 
+    String[] getClassNames() {
+        return classNames;
+    }
+
+    boolean hasClassName(String className) {
+        for (String aux : classNames) {
+            if (aux.equals(className))
+                return true;
+        }
+        return false;
+    }
+
     Set<ServiceName> getServiceNames() {
+        Set<ServiceName> serviceNames = new HashSet<ServiceName>(classNames.length);
+        for (String className : classNames)
+            serviceNames.add(createServiceName(className));
         return Collections.unmodifiableSet(serviceNames);
     }
 
@@ -227,50 +238,71 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
 
     void unregisterInternal() {
         serviceManager.unregisterService(this);
-        usingBundles = null;
+    }
+
+    /**
+     * Claim this service for unregistration.
+     *
+     * @return false if the service is already being unregistered
+     */
+    boolean claimUnregistration() {
+        // A concurrent modification either completes its index update before, or does not start it
+        synchronized (propertiesLock) {
+            return unregistering.compareAndSet(false, true);
+        }
+    }
+
+    /**
+     * Called by the service manager when the service has completed unregistering.
+     */
+    void unregistered() {
         registration = null;
+
+        // A usage that is added concurrently sees the service as unregistered and removes itself
+        for (ServiceUsage usage : usages.values()) {
+            usage.retire();
+            removeUsage(usage);
+        }
     }
 
     @Override
     public Object getProperty(String key) {
-        if (key == null)
-            return null;
         return currProperties.get(key);
     }
 
     @Override
     public String[] getPropertyKeys() {
-        List<String> result = new ArrayList<String>();
-        if (currProperties != null) {
-            Enumeration<String> keys = currProperties.keys();
-            while (keys.hasMoreElements())
-                result.add(keys.nextElement());
-        }
-        return result.toArray(new String[result.size()]);
+        return currProperties.getKeys();
+    }
+
+    ServiceProperties getProperties() {
+        return currProperties;
     }
 
     @Override
-    @SuppressWarnings({"unchecked"})
     public void setProperties(Dictionary properties) {
         assertNotUnregistered();
 
         // Remember the previous properties for a potential
         // delivery of the MODIFIED_ENDMATCH event
-        prevProperties = currProperties;
-
-        if (properties == null)
-            properties = new Hashtable();
-
-        properties.put(Constants.SERVICE_ID, currProperties.get(Constants.SERVICE_ID));
-        properties.put(Constants.OBJECTCLASS, currProperties.get(Constants.OBJECTCLASS));
-        currProperties = new CaseInsensitiveDictionary(properties);
+        ServiceProperties newProperties = new ServiceProperties(properties, serviceId, classNames);
+        synchronized (propertiesLock) {
+            if (unregistering.get())
+                throw new IllegalStateException("Service is unregistered: " + this);
+
+            ServiceProperties oldProperties = currProperties;
+            prevProperties = oldProperties;
+            currProperties = newProperties;
+            serviceManager.modifyService(this, oldProperties, newProperties);
+        }
+        serviceManager.getHookRegistry().serviceChanged(this);
 
         // This event is synchronously delivered after the service properties have been modified.
         FrameworkEventsPlugin eventsPlugin = serviceManager.getFrameworkEventsPlugin();
         eventsPlugin.fireServiceEvent(ownerBundle, ServiceEvent.MODIFIED, this);
     }
 
-    Dictionary getPreviousProperties() {
+    ServiceProperties getPreviousProperties() {
         return prevProperties;
     }
 
@@ -286,44 +318,95 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
         return ownerBundle;
     }
 
-    void addUsingBundle(AbstractBundleState bundleState) {
-        synchronized (this) {
-            if (usingBundles == null)
-                usingBundles = new HashSet<AbstractBundleState>();
+    /**
+     * Increment the use count of the given bundle.
+     *
+     * @return the new use count or -1 if the service has been unregistered
+     */
+    int addUsingBundle(AbstractBundleState bundleState) {
+        long bundleId = bundleState.getBundleId();
+        while (true) {
+            ServiceUsage usage = usages.get(bundleId);
+            if (usage == null) {
+                usage = new ServiceUsage(this, bundleState);
+                ServiceUsage existing = usages.putIfAbsent(bundleId, usage);
+                if (existing != null)
+                    usage = existing;
+                else
+                    bundleState.addServiceInUse(usage);
+            }
 
-            usingBundles.add(bundleState);
+            int count = usage.useCount.get();
+            if (count < 0) {
+                // The usage has dropped to zero concurrently, replace it
+                usages.remove(bundleId, usage);
+                continue;
+            }
+            if (usage.useCount.compareAndSet(count, count + 1) == false)
+                continue;
+
+            // The usage may have been added after the service has completed unregistering
+            if (isUnregistered()) {
+                usage.retire();
+                removeUsage(usage);
+                return -1;
+            }
+            return count + 1;
         }
     }
 
-    void removeUsingBundle(AbstractBundleState bundleState) {
-        synchronized (this) {
-            if (usingBundles != null)
-                usingBundles.remove(bundleState);
+    /**
+     * Decrement the use count of the given bundle. The usage is removed when the count drops to zero.
+     *
+     * @return the new use count or -1 if the bundle does not use this service
+     */
+    int removeUsingBundle(AbstractBundleState bundleState) {
+        ServiceUsage usage = usages.get(bundleState.getBundleId());
+        if (usage == null)
+            return -1;
+
+        while (true) {
+            int count = usage.useCount.get();
+            if (count <= 0)
+                return -1;
+
+            // The last release retires the usage, so that a concurrent increment creates a new one
+            int next = (count == 1 ? ServiceUsage.RETIRED : count - 1);
+            if (usage.useCount.compareAndSet(count, next)) {
+                if (next == ServiceUsage.RETIRED) {
+                    removeUsage(usage);
+                    return 0;
+                }
+                return next;
+            }
         }
     }
 
-    Set<AbstractBundleState> getUsingBundlesInternal() {
-        synchronized (this) {
-            if (usingBundles == null)
-                return Collections.emptySet();
+    ServiceUsage getUsage(AbstractBundleState bundleState) {
+        return usages.get(bundleState.getBundleId());
+    }
 
-            // Return an unmodifieable snapshot of the set
-            return Collections.unmodifiableSet(new HashSet<AbstractBundleState>(usingBundles));
+    private void removeUsage(ServiceUsage usage) {
+        usages.remove(usage.bundleState.getBundleId(), usage);
+        usage.bundleState.removeServiceInUse(usage);
+    }
+
+    Set<AbstractBundleState> getUsingBundlesInternal() {
+        Set<AbstractBundleState> result = new HashSet<AbstractBundleState>();
+        for (ServiceUsage usage : usages.values()) {
+            if (usage.useCount.get() > 0)
+                result.add(usage.bundleState);
         }
+        return Collections.unmodifiableSet(result);
     }
 
     @Override
     public Bundle[] getUsingBundles() {
-        synchronized (this) {
-            if (usingBundles == null)
-                return null;
-
-            Set<Bundle> bundles = new HashSet<Bundle>();
-            for (AbstractBundleState aux : usingBundles)
-                bundles.add(aux);
+        Set<AbstractBundleState> bundles = getUsingBundlesInternal();
+        if (bundles.isEmpty())
+            return null;
 
-            return bundles.toArray(new Bundle[bundles.size()]);
-        }
+        return bundles.toArray(new Bundle[bundles.size()]);
     }
 
     @Override
@@ -337,35 +420,63 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
         if (bundleState == ownerBundle)
             return true;
 
-        Class<?> targetClass;
+        // The class spaces of resolved revisions only change on refresh or uninstall, which clears the cached results
+        AbstractBundleRevision requestingRev = bundleState.getCurrentBundleRevision();
+        AbstractBundleRevision ownerRev = ownerBundle.getCurrentBundleRevision();
+        boolean cacheable = requestingRev.isResolved() && ownerRev.isResolved();
+        AssignabilityCache assignabilityCache = serviceManager.getAssignabilityCache();
+        if (cacheable) {
+            Boolean cached = assignabilityCache.getResult(requestingRev, ownerRev, className);
+            if (cached != null)
+                return cached.booleanValue();
+        }
+
+        boolean result = true;
+        Class<?> targetClass = null;
+        Class<?> serviceClass = null;
         try {
             targetClass = bundle.loadClass(className);
         } catch (ClassNotFoundException ex) {
             // If the requesting bundle does not have a wire to the
             // service package it cannot be constraint on that package.
             log.tracef("Requesting bundle [%s] cannot load class: %s", bundle, className);
-            return true;
         }
 
         // For the bundle that registered the service referenced by this ServiceReference (registrant bundle);
         // find the source for the package. If no source is found then return true if the registrant bundle
         // is equal to the specified bundle; otherwise return false
-        Class<?> serviceClass;
-        try {
-            serviceClass = ownerBundle.loadClass(className);
-        } catch (ClassNotFoundException e) {
-            log.tracef("Registrant bundle [%s] cannot load class: %s", ownerBundle, className);
-            return true;
+        if (targetClass != null) {
+            try {
+                serviceClass = ownerBundle.loadClass(className);
+            } catch (ClassNotFoundException e) {
+                log.tracef("Registrant bundle [%s] cannot load class: %s", ownerBundle, className);
+            }
         }
 
         // If the package source of the registrant bundle is equal to the package source of the specified bundle
         // then return true; otherwise return false.
-        if (targetClass != serviceClass) {
-            log.tracef("Not assignable: %s", className);
-            return false;
+        if (targetClass != null && serviceClass != null) {
+            if (targetClass != serviceClass) {
+                log.tracef("Not assignable: %s", className);
+                result = false;
+            }
+        } else {
+            // A dynamic import may still wire the package later
+            cacheable &= hasDynamicImports(targetClass == null ? requestingRev : ownerRev) == false;
         }
 
-        return true;
+        if (cacheable)
+            assignabilityCache.putResult(requestingRev, ownerRev, className, result);
+
+        return result;
+    }
+
+    static boolean hasDynamicImports(AbstractBundleRevision brev) {
+        for (Requirement req : brev.getRequirements(WIRING_PACKAGE_NAMESPACE)) {
+            if (((XPackageRequirement) req).isDynamic())
+                return true;
+        }
+        return false;
     }
 
     @Override
@@ -378,11 +489,7 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
     }
 
     int getServiceRanking() {
-        Object prop = getProperty(Constants.SERVICE_RANKING);
-        if (prop instanceof Integer == false)
-            return 0;
-
-        return ((Integer) prop).intValue();
+        return currProperties.getServiceRanking();
     }
 
     boolean isUnregistered() {
@@ -428,24 +535,56 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
     }
 
     @Override
-    @SuppressWarnings("unchecked")
     public String toString() {
-        Hashtable<String, Object> props = new Hashtable<String, Object>(currProperties);
+        Hashtable<String, Object> props = currProperties.toHashtable();
         String[] classes = (String[]) props.get(Constants.OBJECTCLASS);
         props.put(Constants.OBJECTCLASS, Arrays.asList(classes));
         return "ServiceState" + props;
     }
 
+    /**
+     * The use count of a bundle for this service. It is shared with the bundle and kept while the count is above zero,
+     * so that repeated get/unget calls only update the counter. A usage whose count has dropped to zero is retired and
+     * removed from the service and the bundle; it is never used again.
+     */
+    static final class ServiceUsage {
+
+        static final int RETIRED = -1;
+
+        final ServiceState serviceState;
+        final AbstractBundleState bundleState;
+        final AtomicInteger useCount = new AtomicInteger();
+
+        ServiceUsage(ServiceState serviceState, AbstractBundleState bundleState) {
+            this.serviceState = serviceState;
+            this.bundleState = bundleState;
+        }
+
+        boolean isRetired() {
+            return useCount.get() == RETIRED;
+        }
+
+        void retire() {
+            useCount.set(RETIRED);
+        }
+    }
+
     interface ValueProvider {
         Object getValue();
     }
 
+    /**
+     * Holds the factory value of a bundle.
+     *
+     * Once the value exists, getService only increments the use count. The factory is only called while holding the lock
+     * of this holder, so that it is never called concurrently for the same bundle.
+     */
     class ServiceFactoryHolder {
 
-        ServiceFactory factory;
-        AbstractBundleState bundleState;
-        AtomicInteger useCount;
-        Object value;
+        final ServiceFactory factory;
+        final AbstractBundleState bundleState;
+        final AtomicInteger useCount;
+        volatile Object value;
 
         ServiceFactoryHolder(AbstractBundleState bundleState, ServiceFactory factory) {
             this.bundleState = bundleState;
@@ -455,9 +594,16 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
 
         Object getService() {
             // Multiple calls to getService() return the same value
-            if (useCount.get() == 0) {
-                // The Framework must not allow this method to be concurrently called for the same bundle
-                synchronized (bundleState) {
+            int count = useCount.get();
+            while (count > 0) {
+                if (useCount.compareAndSet(count, count + 1))
+                    return value;
+                count = useCount.get();
+            }
+
+            // The Framework must not allow this method to be concurrently called for the same bundle
+            synchronized (this) {
+                if (useCount.get() == 0) {
                     Object retValue = factory.getService(bundleState, getRegistration());
                     if (retValue == null)
                         return null;
@@ -469,19 +615,18 @@ final class ServiceState implements ServiceRegistration, ServiceReference {
 
                     value = retValue;
                 }
+                useCount.incrementAndGet();
+                return value;
             }
-
-            useCount.incrementAndGet();
-            return value;
         }
 
         void ungetService() {
-            if (useCount.get() == 0)
-                return;
+            synchronized (this) {
+                if (useCount.get() == 0)
+                    return;
 
-            // Call unget on the factory when done
-            if (useCount.decrementAndGet() == 0) {
-                synchronized (bundleState) {
+                // Call unget on the factory when done
+                if (useCount.decrementAndGet() == 0) {
                     factory.ungetService(bundleState, getRegistration(), value);
                     value = null;
                 }
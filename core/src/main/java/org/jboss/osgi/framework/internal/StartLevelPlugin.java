@@ -238,6 +238,16 @@ public final class StartLevelPlugin extends AbstractExecutorService<StartLevel>
      * @param level the target Start Level to which the Framework should move.
      */
     synchronized void increaseStartLevel(int level) {
+        FrameworkEventsPlugin eventsPlugin = injectedFrameworkEvents.getValue();
+        eventsPlugin.beginBundleEventBatch();
+        try {
+            increaseStartLevelInternal(level);
+        } finally {
+            eventsPlugin.endBundleEventBatch();
+        }
+    }
+
+    private void increaseStartLevelInternal(int level) {
         BundleManager bundleManager = injectedBundleManager.getValue();
         Collection<AbstractBundleState> bundles = bundleManager.getBundles();
         while (startLevel < level) {
@@ -270,6 +280,16 @@ public final class StartLevelPlugin extends AbstractExecutorService<StartLevel>
      * @param sl the target Start Level to which the Framework should move.
      */
     synchronized void decreaseStartLevel(int sl) {
+        FrameworkEventsPlugin eventsPlugin = injectedFrameworkEvents.getValue();
+        eventsPlugin.beginBundleEventBatch();
+        try {
+            decreaseStartLevelInternal(sl);
+        } finally {
+            eventsPlugin.endBundleEventBatch();
+        }
+    }
+
+    private void decreaseStartLevelInternal(int sl) {
         BundleManager bundleManager = injectedBundleManager.getValue();
         while (startLevel > sl) {
             log.infof("Stopping bundles for start level: %s", startLevel);
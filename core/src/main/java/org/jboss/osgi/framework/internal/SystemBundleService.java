@@ -105,6 +105,7 @@ public final class SystemBundleService extends AbstractBundleService<SystemBundl
     public void stop(StopContext context) {
         super.stop(context);
         BundleManager bundleManager = getBundleManager();
+        bundleManager.getPackageExporterIndex().removeRevision(bundleState.getCurrentBundleRevision());
         bundleManager.injectedSystemBundle.uninject();
     }
 
@@ -140,5 +141,6 @@ public final class SystemBundleService extends AbstractBundleService<SystemBundl
     private void addToEnvironment(SystemBundleRevision sysrev) {
         XEnvironment env = injectedEnvironmentPlugin.getValue();
         env.installResources(sysrev);
+        getBundleManager().getPackageExporterIndex().addRevision(sysrev);
     }
 }
\ No newline at end of file
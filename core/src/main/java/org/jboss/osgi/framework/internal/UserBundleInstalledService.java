@@ -118,5 +118,6 @@ abstract class UserBundleInstalledService<T extends UserBundleState> extends Abs
         FrameworkState frameworkState = userBundle.getFrameworkState();
         XEnvironment env = frameworkState.getEnvironment();
         env.installResources(userRev);
+        getBundleManager().getPackageExporterIndex().addRevision(userRev);
     }
 }
\ No newline at end of file
@@ -80,6 +80,13 @@ abstract class UserBundleRevision extends AbstractBundleRevision {
         return deployment;
     }
 
+    /**
+     * Get the storage state that was created for this revision.
+     */
+    BundleStorageState getBundleStorageState() {
+        return deployment.getAttachment(BundleStorageState.class);
+    }
+
     @Override
     String getLocation() {
         return deployment.getLocation();
@@ -37,7 +37,6 @@ import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.Constants;
 import org.osgi.framework.FrameworkEvent;
-import org.osgi.framework.wiring.BundleRevision;
 import org.osgi.framework.wiring.BundleWiring;
 import org.osgi.service.packageadmin.PackageAdmin;
 
@@ -284,9 +283,10 @@ abstract class UserBundleState extends AbstractBundleState {
             OSGiMetaData metadata = deploymentPlugin.createOSGiMetaData(dep);
             dep.addAttachment(OSGiMetaData.class, metadata);
             dep.addAttachment(Bundle.class, this);
-            BundleRevision brev = createRevision(dep);
+            UserBundleRevision brev = createRevision(dep);
             XEnvironment env = getFrameworkState().getEnvironment();
             env.installResources(brev);
+            getBundleManager().getPackageExporterIndex().addRevision(brev);
         } catch (BundleException ex) {
             throw ex;
         }
@@ -331,18 +331,24 @@ abstract class UserBundleState extends AbstractBundleState {
 
         // Remove the revisions from the environment
         ModuleManagerPlugin moduleManager = getFrameworkState().getModuleManagerPlugin();
+        ServiceManagerPlugin serviceManager = getFrameworkState().getServiceManagerPlugin();
         UserBundleRevision currentRev = getCurrentBundleRevision();
         for (AbstractBundleRevision brev : getAllBundleRevisions()) {
+            serviceManager.removeClassSpace(brev);
 
             XEnvironment env = getFrameworkState().getEnvironment();
-            if (currentRev != brev)
+            PackageExporterIndex exporterIndex = getBundleManager().getPackageExporterIndex();
+            if (currentRev != brev) {
                 env.uninstallResources(brev);
+                exporterIndex.removeRevision(brev);
+            }
             
             if (brev instanceof HostBundleRevision) {
             	HostBundleRevision hostRev = (HostBundleRevision) brev;
             	for (FragmentBundleRevision fragRev : hostRev.getAttachedFragments()) {
             		if (fragRev != fragRev.getBundleState().getCurrentBundleRevision()) {
                         env.uninstallResources(fragRev);
+                        exporterIndex.removeRevision(fragRev);
             		}
             	}
             }
@@ -28,18 +28,20 @@ import org.jboss.modules.ResourceLoader;
 import org.jboss.osgi.vfs.VFSUtils;
 import org.jboss.osgi.vfs.VirtualFile;
 
-import java.io.ByteArrayOutputStream;
 import java.io.Closeable;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
 import java.security.CodeSigner;
 import java.security.CodeSource;
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 import java.util.jar.Attributes;
 import java.util.jar.Manifest;
 
@@ -52,15 +54,20 @@ import java.util.jar.Manifest;
  */
 public final class VirtualFileResourceLoader implements ResourceLoader {
 
+    private static final Manifest NO_MANIFEST = new Manifest();
+
     private final VirtualFile virtualFile;
-    private final Set<String> localPaths;
+    private volatile Set<String> localPaths;
+    private final ConcurrentMap<List<CodeSigner>, CodeSource> codeSources = new ConcurrentHashMap<List<CodeSigner>, CodeSource>();
+    private final ConcurrentMap<String, PackageSpec> packageSpecs = new ConcurrentHashMap<String, PackageSpec>();
+    private volatile URL rootURL;
+    private volatile Manifest manifest;
 
     public VirtualFileResourceLoader(VirtualFile virtualFile) {
         if (virtualFile == null)
             throw new IllegalArgumentException("Null virtualFile");
 
         this.virtualFile = virtualFile;
-        this.localPaths = getLocalPaths();
     }
 
     @Override
@@ -77,23 +84,72 @@ public final class VirtualFileResourceLoader implements ResourceLoader {
         ClassSpec classSpec = new ClassSpec();
         InputStream is = child.openStream();
         try {
-            ByteArrayOutputStream os = new ByteArrayOutputStream(1024);
-            VFSUtils.copyStream(is, os);
-            classSpec.setBytes(os.toByteArray());
+            classSpec.setBytes(readBytes(is));
         } finally {
             safeClose(is);
         }
 
-        CodeSigner[] codeSigners = child.getCodeSigners();
-        classSpec.setCodeSource(new CodeSource(new URL("jar", null, -1, child.getName()), codeSigners));
-
+        classSpec.setCodeSource(getCodeSource(child.getCodeSigners()));
         return classSpec;
     }
 
+    /**
+     * Read the stream into an array of the exact size. The streams of archive entries and files report the number of
+     * remaining bytes, in which case the bytes are read into their final array directly.
+     */
+    private static byte[] readBytes(InputStream is) throws IOException {
+        int available = is.available();
+        byte[] bytes = new byte[available > 0 ? available : 1024];
+        int count = 0;
+        while (true) {
+            if (count == bytes.length) {
+                int next = is.read();
+                if (next < 0)
+                    return bytes;
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, 1024));
+                bytes[count++] = (byte) next;
+            }
+            int read = is.read(bytes, count, bytes.length - count);
+            if (read < 0)
+                return Arrays.copyOf(bytes, count);
+            count += read;
+        }
+    }
+
+    /**
+     * Get the code source for classes with the given signers. All classes from this root with the same signers share a
+     * code source, so that they also share a protection domain.
+     */
+    private CodeSource getCodeSource(CodeSigner[] codeSigners) throws IOException {
+        List<CodeSigner> key = codeSigners != null ? Arrays.asList(codeSigners) : Collections.<CodeSigner> emptyList();
+        CodeSource codeSource = codeSources.get(key);
+        if (codeSource == null) {
+            URL url = rootURL;
+            if (url == null)
+                rootURL = url = virtualFile.toURL();
+            codeSource = new CodeSource(url, codeSigners);
+            CodeSource existing = codeSources.putIfAbsent(key, codeSource);
+            if (existing != null)
+                codeSource = existing;
+        }
+        return codeSource;
+    }
+
     @Override
     public PackageSpec getPackageSpec(String name) throws IOException {
+        PackageSpec spec = packageSpecs.get(name);
+        if (spec == null) {
+            spec = createPackageSpec(name);
+            PackageSpec existing = packageSpecs.putIfAbsent(name, spec);
+            if (existing != null)
+                spec = existing;
+        }
+        return spec;
+    }
+
+    private PackageSpec createPackageSpec(String name) throws IOException {
         PackageSpec spec = new PackageSpec();
-        Manifest manifest = VFSUtils.getManifest(virtualFile);
+        Manifest manifest = getManifest();
         if (manifest == null) {
             return spec;
         }
@@ -111,6 +167,20 @@ public final class VirtualFileResourceLoader implements ResourceLoader {
         return spec;
     }
 
+    /**
+     * Get the manifest of the root, which is read once for the lifetime of the loader.
+     */
+    private Manifest getManifest() throws IOException {
+        Manifest result = manifest;
+        if (result == null) {
+            result = VFSUtils.getManifest(virtualFile);
+            if (result == null)
+                result = NO_MANIFEST;
+            manifest = result;
+        }
+        return result != NO_MANIFEST ? result : null;
+    }
+
     private static String getDefinedAttribute(Attributes.Name name, Attributes entryAttribute, Attributes mainAttribute) {
         final String value = entryAttribute == null ? null : entryAttribute.getValue(name);
         return value == null ? mainAttribute == null ? null : mainAttribute.getValue(name) : value;
@@ -134,9 +204,15 @@ public final class VirtualFileResourceLoader implements ResourceLoader {
         return null;
     }
 
+    /**
+     * Get the paths of the archive, which are scanned when they are first requested.
+     */
     @Override
     public Collection<String> getPaths() {
-        return localPaths;
+        Set<String> result = localPaths;
+        if (result == null)
+            localPaths = result = getLocalPaths();
+        return result;
     }
 
     private Set<String> getLocalPaths() {
@@ -36,9 +36,14 @@ import org.osgi.framework.BundleActivator;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.InputStream;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
 
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -92,6 +97,30 @@ public class BundleStorageTestCase extends AbstractFrameworkTest {
         assertFalse("Storage dir deleted", storageDir.exists());
     }
 
+    @Test
+    public void testContentPaths() throws Exception {
+        BundleManager bundleManager = getBundleManager();
+        BundleStoragePlugin plugin = getFrameworkState().getBundleStoragePlugin();
+
+        JavaArchive archive = getArchive();
+        BundleStorageState storageState = plugin.createStorageState(bundleManager.nextBundleId(), archive.getName(), toVirtualFile(archive));
+        assertNull("No stored paths", storageState.loadContentPaths(0));
+
+        Set<String> paths = new HashSet<String>(Arrays.asList("", "META-INF", "org/jboss/test/osgi/framework/subA"));
+        storageState.storeContentPaths(0, paths);
+        assertEquals(paths, storageState.loadContentPaths(0));
+        assertNull("No stored paths", storageState.loadContentPaths(1));
+
+        // The stored paths are discarded when the revision file changes
+        File revFile = storageState.getRevisionFile();
+        assertTrue("Revision file exists", revFile.exists());
+        revFile.setLastModified(revFile.lastModified() - 10000);
+        assertNull("Stale paths", storageState.loadContentPaths(0));
+
+        storageState.deleteBundleStorage();
+        assertFalse("Storage dir deleted", storageState.getBundleStorageDir().exists());
+    }
+
     private void assertStorageState(BundleStorageState storageState) {
         assertNotNull("BundleStorageState not null", storageState);
 
@@ -0,0 +1,122 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.junit.Test;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Filter;
+import org.osgi.framework.FrameworkUtil;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.Version;
+
+import java.util.Arrays;
+import java.util.Hashtable;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify that compiled filters match like the framework filters.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public class CompiledFilterTestCase extends AbstractFrameworkTest {
+
+    static final String[] FILTERS = new String[] {
+        "(objectClass=java.lang.Runnable)", "(objectclass=java.lang.*)", "(OBJECTCLASS=*Runnable)", "(objectClass=*lang*)",
+        "(name=foo)", "(name=FOO)", "(name~=F O O)", "(name>=fo)", "(name<=fo)", "(name=f*o)", "(name=*)", "(missing=*)",
+        "(int=10)", "(int>=9)", "(int<=9)", "(int= 10 )", "(int=x)", "(int=10000000000)",
+        "(long=10000000000)", "(long>=1)", "(short=3)", "(byte=4)", "(float=1.5)", "(double<=2.5)", "(double>=3)",
+        "(bool=true)", "(bool=TRUE)", "(bool=false)", "(char=c)", "(char~=C)",
+        "(intarr=2)", "(intarr=5)", "(list=b)", "(list=d)", "(strarr=y*)",
+        "(version=1.2.3)", "(version>=1.2)", "(version<=1.0)",
+        "(&(name=foo)(int=10))", "(&(name=foo)(int=11))", "(|(name=bar)(int=10))", "(!(name=foo))", "(!(missing=foo))",
+        "(name=\\*)", "(star=\\*)", "(star=*\\*)"
+    };
+
+    @Test
+    public void testCompiledMatch() throws Exception {
+        BundleContext context = getSystemContext();
+
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put("name", "foo");
+        props.put("star", "*");
+        props.put("int", Integer.valueOf(10));
+        props.put("long", Long.valueOf(10000000000L));
+        props.put("short", Short.valueOf((short) 3));
+        props.put("byte", Byte.valueOf((byte) 4));
+        props.put("float", Float.valueOf(1.5f));
+        props.put("double", Double.valueOf(2.5));
+        props.put("bool", Boolean.TRUE);
+        props.put("char", Character.valueOf('c'));
+        props.put("intarr", new int[] { 1, 2, 3 });
+        props.put("strarr", new String[] { "x", "yz" });
+        props.put("list", Arrays.asList("a", "b", "c"));
+        props.put("version", Version.parseVersion("1.2.3"));
+
+        ServiceRegistration sreg = context.registerService(Runnable.class.getName(), new Runnable() {
+            public void run() {
+            }
+        }, props);
+        try {
+            ServiceReference sref = sreg.getReference();
+            for (String filterstr : FILTERS) {
+                Filter expected = FrameworkUtil.createFilter(filterstr);
+                Filter compiled = context.createFilter(filterstr);
+                assertTrue("Compiled filter: " + compiled, compiled instanceof CompiledFilter);
+                assertEquals(filterstr, expected, compiled);
+                assertEquals(filterstr, expected.match(sref), compiled.match(sref));
+            }
+        } finally {
+            sreg.unregister();
+        }
+    }
+
+    @Test
+    public void testFilterCache() throws Exception {
+        BundleContext context = getSystemContext();
+        Filter filter = context.createFilter("(name=foo)");
+        assertSame(filter, context.createFilter("(name=foo)"));
+    }
+
+    @Test
+    public void testObjectClasses() throws Exception {
+        BundleContext context = getSystemContext();
+        String[] runnable = new String[] { "java.lang.Runnable" };
+        assertArrayEquals(runnable, getObjectClasses(context, "(objectClass=java.lang.Runnable)"));
+        assertArrayEquals(runnable, getObjectClasses(context, "(&(name=foo)(OBJECTCLASS=java.lang.Runnable))"));
+        assertArrayEquals(new String[] { "a", "b" }, getObjectClasses(context, "(|(objectClass=a)(&(objectClass=b)(name=foo)))"));
+        assertNull(getObjectClasses(context, "(objectClass=java.lang.*)"));
+        assertNull(getObjectClasses(context, "(|(objectClass=a)(name=foo))"));
+        assertNull(getObjectClasses(context, "(!(objectClass=a))"));
+        assertNull(getObjectClasses(context, "(name=foo)"));
+    }
+
+    private String[] getObjectClasses(BundleContext context, String filterstr) throws Exception {
+        return ((CompiledFilter) context.createFilter(filterstr)).getObjectClasses();
+    }
+}
@@ -0,0 +1,114 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the ordering of asynchronous event delivery.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public class EventDispatcherTestCase {
+
+    @Test
+    public void testListenerOrdering() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher("Test", 4, 10);
+        try {
+            final Object slowListener = new Object();
+            final Object fastListener = new Object();
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch delivered = new CountDownLatch(100);
+            final List<Integer> events = Collections.synchronizedList(new ArrayList<Integer>());
+
+            // A blocked listener does not delay the other listeners
+            dispatcher.dispatch(slowListener, new Runnable() {
+                public void run() {
+                    try {
+                        blocked.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            for (int i = 0; i < 100; i++) {
+                final Integer event = Integer.valueOf(i);
+                dispatcher.dispatch(fastListener, new Runnable() {
+                    public void run() {
+                        events.add(event);
+                        delivered.countDown();
+                    }
+                });
+            }
+            assertTrue("Events delivered", delivered.await(10, TimeUnit.SECONDS));
+            blocked.countDown();
+
+            for (int i = 0; i < 100; i++)
+                assertEquals(Integer.valueOf(i), events.get(i));
+            assertEquals(101, dispatcher.getDispatchedCount());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+
+    @Test
+    public void testBacklogOverflow() throws Exception {
+        EventDispatcher dispatcher = new EventDispatcher("Test", 1, 2);
+        try {
+            Object listener = new Object();
+            final CountDownLatch blocked = new CountDownLatch(1);
+            final CountDownLatch delivered = new CountDownLatch(10);
+            Runnable delivery = new Runnable() {
+                public void run() {
+                    try {
+                        blocked.await(10, TimeUnit.SECONDS);
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                    }
+                    delivered.countDown();
+                }
+            };
+
+            // A full backlog does not hold back the producer
+            for (int i = 0; i < 10; i++)
+                dispatcher.dispatch(listener, delivery);
+            assertEquals(10, dispatcher.getBacklog());
+            assertEquals(8, dispatcher.getOverflowCount());
+
+            blocked.countDown();
+            assertTrue("Events delivered", delivered.await(10, TimeUnit.SECONDS));
+            assertEquals(10, dispatcher.getPeakBacklog());
+        } finally {
+            dispatcher.shutdown();
+        }
+    }
+}
@@ -0,0 +1,182 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.osgi.resolver.XPackageCapability;
+import org.jboss.osgi.spi.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.FrameworkEvent;
+import org.osgi.framework.FrameworkListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.Version;
+import org.osgi.service.packageadmin.ExportedPackage;
+import org.osgi.service.packageadmin.PackageAdmin;
+
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the index of exported packages.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public class PackageExporterIndexTestCase extends AbstractFrameworkTest {
+
+    private static final String PACKAGE_NAME = "org.jboss.test.osgi.exporter.index";
+
+    @Test
+    public void testExporterOrder() throws Exception {
+        Bundle bundleA = installBundle(getTestArchive("exporter-a", "1.0", null));
+        Bundle bundleB = installBundle(getTestArchive("exporter-b", "2.0", null));
+        Bundle bundleC = installBundle(getTestArchive("exporter-c", "1.0", null));
+        try {
+            // Descending version, then ascending bundle id
+            XPackageCapability[] caps = getExporterIndex().getCapabilities(PACKAGE_NAME);
+            assertEquals(3, caps.length);
+            assertExporter(bundleB, "2.0", caps[0]);
+            assertExporter(bundleA, "1.0", caps[1]);
+            assertExporter(bundleC, "1.0", caps[2]);
+
+            // An uninstalled exporter is removed
+            bundleA.uninstall();
+            caps = getExporterIndex().getCapabilities(PACKAGE_NAME);
+            assertEquals(2, caps.length);
+            assertExporter(bundleB, "2.0", caps[0]);
+            assertExporter(bundleC, "1.0", caps[1]);
+        } finally {
+            uninstall(bundleA, bundleB, bundleC);
+        }
+        assertEquals(0, getExporterIndex().getCapabilities(PACKAGE_NAME).length);
+    }
+
+    @Test
+    public void testRefreshSupersededRevision() throws Exception {
+        Bundle bundle = installBundle(getTestArchive("exporter-update", "1.0", null));
+        try {
+            assertTrue(getPackageAdmin().resolveBundles(new Bundle[] { bundle }));
+            AbstractBundleRevision firstRev = AbstractBundleState.assertBundleState(bundle).getCurrentBundleRevision();
+
+            // The superseded revision stays in the index until the bundle is refreshed
+            JavaArchive archive = getTestArchive("exporter-update", "2.0", null);
+            bundle.update(toInputStream(archive));
+            AbstractBundleRevision updateRev = AbstractBundleState.assertBundleState(bundle).getCurrentBundleRevision();
+            XPackageCapability[] caps = getExporterIndex().getCapabilities(PACKAGE_NAME);
+            assertEquals(2, caps.length);
+            assertSame(updateRev, caps[0].getResource());
+            assertSame(firstRev, caps[1].getResource());
+
+            refreshPackages(bundle);
+            caps = getExporterIndex().getCapabilities(PACKAGE_NAME);
+            assertEquals(1, caps.length);
+            assertSame(updateRev, caps[0].getResource());
+        } finally {
+            uninstall(bundle);
+        }
+    }
+
+    @Test
+    public void testGetExportedPackagePrefersWired() throws Exception {
+        Bundle bundleA = installBundle(getTestArchive("exporter-wired", "1.0", null));
+        Bundle bundleI = installBundle(getTestArchive("importer", null, "[1.0,2.0)"));
+        Bundle bundleB = installBundle(getTestArchive("exporter-unwired", "2.0", null));
+        try {
+            PackageAdmin packageAdmin = getPackageAdmin();
+            assertTrue(packageAdmin.resolveBundles(new Bundle[] { bundleA, bundleI, bundleB }));
+
+            // The wired exporter wins over the unwired one with the higher version
+            ExportedPackage exported = packageAdmin.getExportedPackage(PACKAGE_NAME);
+            assertEquals(bundleA, exported.getExportingBundle());
+            assertEquals(Version.parseVersion("1.0"), exported.getVersion());
+            assertEquals(2, packageAdmin.getExportedPackages(PACKAGE_NAME).length);
+        } finally {
+            uninstall(bundleI, bundleA, bundleB);
+        }
+    }
+
+    private void assertExporter(Bundle bundle, String version, XPackageCapability cap) {
+        assertSame(AbstractBundleState.assertBundleState(bundle), ((AbstractBundleRevision) cap.getResource()).getBundleState());
+        assertEquals(Version.parseVersion(version), cap.getVersion());
+    }
+
+    private void refreshPackages(Bundle bundle) throws Exception {
+        final CountDownLatch latch = new CountDownLatch(1);
+        FrameworkListener listener = new FrameworkListener() {
+            public void frameworkEvent(FrameworkEvent event) {
+                if (event.getType() == FrameworkEvent.PACKAGES_REFRESHED)
+                    latch.countDown();
+            }
+        };
+        BundleContext context = getSystemContext();
+        context.addFrameworkListener(listener);
+        try {
+            getPackageAdmin().refreshPackages(new Bundle[] { bundle });
+            assertTrue(latch.await(10, TimeUnit.SECONDS));
+        } finally {
+            context.removeFrameworkListener(listener);
+        }
+    }
+
+    private void uninstall(Bundle... bundles) throws Exception {
+        for (Bundle bundle : bundles) {
+            if (bundle.getState() != Bundle.UNINSTALLED)
+                bundle.uninstall();
+        }
+    }
+
+    private PackageExporterIndex getExporterIndex() throws Exception {
+        return getBundleManager().getPackageExporterIndex();
+    }
+
+    private PackageAdmin getPackageAdmin() throws Exception {
+        BundleContext context = getSystemContext();
+        ServiceReference sref = context.getServiceReference(PackageAdmin.class.getName());
+        return (PackageAdmin) context.getService(sref);
+    }
+
+    private JavaArchive getTestArchive(String name, final String exportVersion, final String importRange) {
+        final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+        archive.setManifest(new Asset() {
+            public InputStream openStream() {
+                OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+                builder.addBundleManifestVersion(2);
+                builder.addBundleSymbolicName(archive.getName());
+                if (exportVersion != null)
+                    builder.addExportPackages(PACKAGE_NAME + ";version=" + exportVersion);
+                if (importRange != null)
+                    builder.addImportPackages(PACKAGE_NAME + ";version=\"" + importRange + "\"");
+                return builder.openStream();
+            }
+        });
+        return archive;
+    }
+}
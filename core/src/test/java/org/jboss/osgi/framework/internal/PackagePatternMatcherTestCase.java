@@ -0,0 +1,90 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Test the DynamicImport-Package pattern matching.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public class PackagePatternMatcherTestCase {
+
+    @Test
+    public void testPatterns() throws Exception {
+        Map<String, String> patterns = new LinkedHashMap<String, String>();
+        patterns.put("all", "*");
+        patterns.put("foo", "org.foo");
+        patterns.put("bar", "org.foo.bar.*");
+        PackagePatternMatcher<String> matcher = new PackagePatternMatcher<String>(Arrays.asList("org.foo.exported"), patterns);
+
+        assertEquals(Arrays.asList("all"), getMatches(matcher, "Main"));
+        assertEquals(Arrays.asList("all"), getMatches(matcher, "org.Main"));
+        assertEquals(Arrays.asList("all"), getMatches(matcher, "org.fo.Main"));
+        assertEquals(Arrays.asList("all"), getMatches(matcher, "org.foobar.Main"));
+        assertEquals(Arrays.asList("all", "foo"), getMatches(matcher, "org.foo.Main"));
+        assertEquals(Arrays.asList("all", "foo"), getMatches(matcher, "org.foo.baz.Main"));
+        assertEquals(Arrays.asList("all", "foo", "bar"), getMatches(matcher, "org.foo.bar.Main"));
+        assertEquals(Arrays.asList("all", "foo", "bar"), getMatches(matcher, "org.foo.bar.baz.Main"));
+        assertTrue(getMatches(matcher, "org.foo.exported.Main").isEmpty());
+        assertEquals(Arrays.asList("all", "foo"), getMatches(matcher, "org.foo.exported.sub.Main"));
+    }
+
+    @Test
+    public void testResourcePaths() throws Exception {
+        Map<String, String> patterns = new LinkedHashMap<String, String>();
+        patterns.put("foo", "org.foo.*");
+        PackagePatternMatcher<String> matcher = new PackagePatternMatcher<String>(Arrays.asList("org.foo.exported"), patterns);
+
+        assertEquals(Arrays.asList("foo"), getResourceMatches(matcher, "org/foo/bar/file.txt"));
+        assertTrue(getResourceMatches(matcher, "org/foo/exported/file.txt").isEmpty());
+        assertTrue(getResourceMatches(matcher, "org/file.txt").isEmpty());
+        assertTrue(getResourceMatches(matcher, "file.txt").isEmpty());
+    }
+
+    @Test
+    public void testNoPatterns() throws Exception {
+        Map<String, String> patterns = Collections.emptyMap();
+        PackagePatternMatcher<String> matcher = new PackagePatternMatcher<String>(Arrays.asList("org.foo"), patterns);
+        assertTrue(getMatches(matcher, "org.foo.Main").isEmpty());
+        assertTrue(getMatches(matcher, "org.bar.Main").isEmpty());
+    }
+
+    private List<String> getMatches(PackagePatternMatcher<String> matcher, String className) {
+        return matcher.getMatches(className, className.lastIndexOf('.'));
+    }
+
+    private List<String> getResourceMatches(PackagePatternMatcher<String> matcher, String resName) {
+        return matcher.getMatches(resName, resName.lastIndexOf('/'));
+    }
+}
@@ -0,0 +1,214 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.osgi.framework.internal.FrameworkEventsPlugin.ServiceListenerRegistration;
+import org.jboss.osgi.spi.OSGiManifestBuilder;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceRegistration;
+
+import java.io.InputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Hashtable;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+/**
+ * Verify the index of service listeners by objectClass.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public class ServiceListenerIndexTestCase extends AbstractFrameworkTest {
+
+    private static final String CLASS_A = Runnable.class.getName();
+    private static final String CLASS_B = Serializable.class.getName();
+    private static final String CLASS_C = Comparable.class.getName();
+
+    @Test
+    public void testGetListeners() throws Exception {
+        AbstractBundleState systemBundle = AbstractBundleState.assertBundleState(getSystemContext().getBundle());
+        ServiceListenerRegistration multiReg = getRegistration(systemBundle, new CountingListener(), "(|(objectClass=" + CLASS_A + ")(objectClass=" + CLASS_B + "))");
+        ServiceListenerRegistration residualReg = getRegistration(systemBundle, new CountingListener(), "(service.pid=foo)");
+
+        ServiceListenerIndex index = new ServiceListenerIndex();
+        index.add(multiReg);
+        index.add(residualReg);
+
+        // The listener is indexed under both classes, but returned once
+        assertListeners(index.getListeners(new String[] { CLASS_A, CLASS_B }), residualReg, multiReg);
+        assertListeners(index.getListeners(new String[] { CLASS_B, CLASS_C }), residualReg, multiReg);
+        assertListeners(index.getListeners(new String[] { CLASS_A }), residualReg, multiReg);
+
+        // A filter without an exact objectClass is visited for every service
+        assertListeners(index.getListeners(new String[] { CLASS_C }), residualReg);
+        assertListeners(index.getListeners(new String[] { CLASS_C, String.class.getName() }), residualReg);
+
+        index.remove(multiReg);
+        assertListeners(index.getListeners(new String[] { CLASS_A, CLASS_B }), residualReg);
+        index.remove(residualReg);
+        assertListeners(index.getListeners(new String[] { CLASS_A, CLASS_B }));
+    }
+
+    @Test
+    public void testRemoveSameListenerOfTwoBundles() throws Exception {
+        Bundle bundle = installBundle(getTestArchive("listener-owner"));
+        try {
+            bundle.start();
+            AbstractBundleState systemBundle = AbstractBundleState.assertBundleState(getSystemContext().getBundle());
+            AbstractBundleState otherBundle = AbstractBundleState.assertBundleState(bundle);
+
+            // Registrations with the same listener are equal
+            CountingListener listener = new CountingListener();
+            String filter = "(objectClass=" + CLASS_A + ")";
+            ServiceListenerRegistration systemReg = getRegistration(systemBundle, listener, filter);
+            ServiceListenerRegistration otherReg = getRegistration(otherBundle, listener, filter);
+            assertEquals(systemReg, otherReg);
+
+            ServiceListenerIndex index = new ServiceListenerIndex();
+            index.add(systemReg);
+            index.add(otherReg);
+            assertListeners(index.getListeners(new String[] { CLASS_A }), systemReg, otherReg);
+
+            // Only the exact registration is removed
+            index.remove(otherReg);
+            assertListeners(index.getListeners(new String[] { CLASS_A }), systemReg);
+            index.remove(systemReg);
+            assertListeners(index.getListeners(new String[] { CLASS_A }));
+        } finally {
+            bundle.uninstall();
+        }
+    }
+
+    @Test
+    public void testServiceEvents() throws Exception {
+        Bundle bundle = installBundle(getTestArchive("listener-events"));
+        try {
+            bundle.start();
+            BundleContext systemContext = getSystemContext();
+            BundleContext otherContext = bundle.getBundleContext();
+
+            // One event for a service that matches the listener under both of its classes
+            CountingListener multiListener = new CountingListener();
+            systemContext.addServiceListener(multiListener, "(|(objectClass=" + CLASS_A + ")(objectClass=" + CLASS_B + "))");
+            ServiceRegistration sreg = systemContext.registerService(new String[] { CLASS_A, CLASS_B }, new TestService(), null);
+            assertEquals(1, multiListener.count(ServiceEvent.REGISTERED));
+            sreg.unregister();
+            assertEquals(1, multiListener.count(ServiceEvent.UNREGISTERING));
+            systemContext.removeServiceListener(multiListener);
+
+            // A listener without an exact objectClass only sees the matching services
+            CountingListener residualListener = new CountingListener();
+            systemContext.addServiceListener(residualListener, "(service.pid=foo)");
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put("service.pid", "foo");
+            sreg = systemContext.registerService(CLASS_C, new TestService(), props);
+            systemContext.registerService(CLASS_C, new TestService(), null).unregister();
+            assertEquals(1, residualListener.count(ServiceEvent.REGISTERED));
+            sreg.unregister();
+            systemContext.removeServiceListener(residualListener);
+
+            // The same listener added by two bundles is called for each of them
+            CountingListener listener = new CountingListener();
+            systemContext.addServiceListener(listener, "(objectClass=" + CLASS_A + ")");
+            otherContext.addServiceListener(listener, "(objectClass=" + CLASS_A + ")");
+            systemContext.registerService(CLASS_A, new TestService(), null).unregister();
+            assertEquals(2, listener.count(ServiceEvent.REGISTERED));
+
+            otherContext.removeServiceListener(listener);
+            systemContext.registerService(CLASS_A, new TestService(), null).unregister();
+            assertEquals(3, listener.count(ServiceEvent.REGISTERED));
+
+            systemContext.removeServiceListener(listener);
+            systemContext.registerService(CLASS_A, new TestService(), null).unregister();
+            assertEquals(3, listener.count(ServiceEvent.REGISTERED));
+        } finally {
+            bundle.uninstall();
+        }
+    }
+
+    private ServiceListenerRegistration getRegistration(AbstractBundleState bundleState, ServiceListener listener, String filter) throws Exception {
+        FrameworkEventsPlugin eventsPlugin = getFrameworkState().getFrameworkEventsPlugin();
+        return new ServiceListenerRegistration(bundleState, listener, eventsPlugin.createFilter(filter));
+    }
+
+    private void assertListeners(ServiceListenerRegistration[] actual, ServiceListenerRegistration... expected) {
+        assertEquals(Arrays.asList(actual).toString(), expected.length, actual.length);
+        for (int i = 0; i < expected.length; i++)
+            assertSame(expected[i], actual[i]);
+    }
+
+    private JavaArchive getTestArchive(String name) {
+        final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+        archive.setManifest(new Asset() {
+            public InputStream openStream() {
+                OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+                builder.addBundleManifestVersion(2);
+                builder.addBundleSymbolicName(archive.getName());
+                return builder.openStream();
+            }
+        });
+        return archive;
+    }
+
+    @SuppressWarnings("rawtypes")
+    static class TestService implements Runnable, Serializable, Comparable {
+
+        private static final long serialVersionUID = 1L;
+
+        public void run() {
+        }
+
+        public int compareTo(Object obj) {
+            return 0;
+        }
+    }
+
+    static class CountingListener implements ServiceListener {
+
+        private final List<Integer> types = new ArrayList<Integer>();
+
+        public synchronized void serviceChanged(ServiceEvent event) {
+            types.add(event.getType());
+        }
+
+        synchronized int count(int type) {
+            int result = 0;
+            for (Integer aux : types) {
+                if (aux.intValue() == type)
+                    result++;
+            }
+            return result;
+        }
+    }
+}
@@ -0,0 +1,635 @@
+/*
+ * JBoss, Home of Professional Open Source
+ * Copyright 2005, JBoss Inc., and individual contributors as indicated
+ * by the @authors tag. See the copyright.txt in the distribution for a
+ * full listing of individual contributors.
+ *
+ * This is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as
+ * published by the Free Software Foundation; either version 2.1 of
+ * the License, or (at your option) any later version.
+ *
+ * This software is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE. See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this software; if not, write to the Free
+ * Software Foundation, Inc., 51 Franklin St, Fifth Floor, Boston, MA
+ * 02110-1301 USA, or see the FSF site: http://www.fsf.org.
+ */
+package org.jboss.osgi.framework.internal;
+
+import org.jboss.msc.service.AbstractService;
+import org.jboss.msc.service.Service;
+import org.jboss.msc.service.ServiceController;
+import org.jboss.msc.service.ServiceController.Mode;
+import org.jboss.msc.service.ServiceController.State;
+import org.jboss.msc.service.ServiceName;
+import org.jboss.osgi.framework.FutureServiceValue;
+import org.jboss.osgi.spi.OSGiManifestBuilder;
+import org.jboss.osgi.spi.util.ServiceLoader;
+import org.jboss.shrinkwrap.api.ShrinkWrap;
+import org.jboss.shrinkwrap.api.asset.Asset;
+import org.jboss.shrinkwrap.api.spec.JavaArchive;
+import org.junit.Test;
+import org.osgi.framework.Bundle;
+import org.osgi.framework.BundleContext;
+import org.osgi.framework.Constants;
+import org.osgi.framework.ServiceEvent;
+import org.osgi.framework.ServiceFactory;
+import org.osgi.framework.ServiceListener;
+import org.osgi.framework.ServiceReference;
+import org.osgi.framework.ServiceRegistration;
+import org.osgi.framework.launch.Framework;
+import org.osgi.framework.launch.FrameworkFactory;
+
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Verify the ordering of the service registry.
+ *
+ * @author <a href="mailto:agent@local">agent</a>
+ * @since 18-Oct-2026
+ */
+public class ServiceRegistryTestCase extends AbstractFrameworkTest {
+
+    @Test
+    public void testServiceRanking() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        ServiceRegistration sregA = context.registerService(clazz, new RunnableService(), rankingProps(0));
+        ServiceRegistration sregB = context.registerService(clazz, new RunnableService(), rankingProps(10));
+        ServiceRegistration sregC = context.registerService(clazz, new RunnableService(), rankingProps(0));
+        try {
+            // Highest ranking first, then lowest service id
+            ServiceReference[] srefs = context.getServiceReferences(clazz, null);
+            assertEquals(3, srefs.length);
+            assertEquals(sregB.getReference(), context.getServiceReference(clazz));
+
+            // Modified ranking must change the order
+            sregA.setProperties(rankingProps(20));
+            assertEquals(sregA.getReference(), context.getServiceReference(clazz));
+
+            sregA.unregister();
+            sregB.unregister();
+            assertEquals(sregC.getReference(), context.getServiceReference(clazz));
+        } finally {
+            sregC.unregister();
+        }
+        assertNull(context.getServiceReference(clazz));
+        assertNull(context.getServiceReferences(clazz, null));
+    }
+
+    @Test
+    public void testDuplicateClassNames() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        ServiceRegistration sreg = context.registerService(new String[] { clazz, clazz }, new RunnableService(), null);
+        try {
+            ServiceReference[] srefs = context.getServiceReferences(clazz, null);
+            assertEquals(1, srefs.length);
+            assertEquals(1, ((String[]) srefs[0].getProperty(Constants.OBJECTCLASS)).length);
+        } finally {
+            sreg.unregister();
+        }
+        assertNull(context.getServiceReferences(clazz, null));
+    }
+
+    @Test
+    public void testPropertyIndex() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_PID, "pidA");
+        ServiceRegistration sregA = context.registerService(clazz, new RunnableService(), props);
+        props.put(Constants.SERVICE_PID, new String[] { "pidB", "pidC" });
+        ServiceRegistration sregB = context.registerService(clazz, new RunnableService(), props);
+        try {
+            ServiceReference[] srefs = context.getServiceReferences(null, "(service.pid=pidA)");
+            assertEquals(1, srefs.length);
+            assertEquals(sregA.getReference(), srefs[0]);
+
+            srefs = context.getServiceReferences(clazz, "(&(SERVICE.PID=pidC)(objectClass=" + clazz + "))");
+            assertEquals(1, srefs.length);
+            assertEquals(sregB.getReference(), srefs[0]);
+
+            srefs = context.getServiceReferences(clazz, "(service.pid=*)");
+            assertEquals(2, srefs.length);
+            assertNull(context.getServiceReferences(String.class.getName(), "(service.pid=pidA)"));
+
+            // Modified properties must update the index
+            props.put(Constants.SERVICE_PID, "pidD");
+            sregA.setProperties(props);
+            assertNull(context.getServiceReferences(null, "(service.pid=pidA)"));
+            srefs = context.getServiceReferences(null, "(service.pid=pidD)");
+            assertEquals(1, srefs.length);
+            assertEquals(sregA.getReference(), srefs[0]);
+        } finally {
+            sregA.unregister();
+            sregB.unregister();
+        }
+        assertNull(context.getServiceReferences(null, "(service.pid=pidD)"));
+    }
+
+    @Test
+    public void testConcurrentModification() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        for (int i = 0; i < 100; i++) {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put(Constants.SERVICE_PID, new String[] { "pidX", "pidCommon" });
+            final ServiceRegistration sreg = context.registerService(clazz, new RunnableService(), props);
+
+            // Concurrent modifications must leave the index entries of the final properties
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            Thread threadA = new PropertiesThread(sreg, startLatch, new String[] { "pidA" });
+            Thread threadB = new PropertiesThread(sreg, startLatch, new String[] { "pidCommon" });
+            threadA.start();
+            threadB.start();
+            startLatch.countDown();
+            threadA.join();
+            threadB.join();
+
+            String[] pids = (String[]) sreg.getReference().getProperty(Constants.SERVICE_PID);
+            for (String pid : new String[] { "pidX", "pidA", "pidCommon" }) {
+                ServiceReference[] srefs = context.getServiceReferences(clazz, "(service.pid=" + pid + ")");
+                if (Arrays.asList(pids).contains(pid)) {
+                    assertNotNull(pid, srefs);
+                    assertEquals(sreg.getReference(), srefs[0]);
+                } else {
+                    assertNull(pid, srefs);
+                }
+            }
+
+            // A modification that overlaps the unregistration must not index the service again
+            Thread threadC = new PropertiesThread(sreg, null, new String[] { "pidC" });
+            threadC.start();
+            sreg.unregister();
+            threadC.join();
+            assertNull(context.getServiceReferences(clazz, "(service.pid=pidC)"));
+            assertNull(context.getServiceReferences(clazz, "(service.pid=*)"));
+        }
+    }
+
+    @Test
+    public void testBulkRegistration() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        final List<ServiceEvent> events = new ArrayList<ServiceEvent>();
+        ServiceListener listener = new ServiceListener() {
+            public void serviceChanged(ServiceEvent event) {
+                events.add(event);
+            }
+        };
+        context.addServiceListener(listener, "(objectClass=" + clazz + ")");
+        try {
+            AbstractBundleState systemBundle = AbstractBundleState.assertBundleState(context.getBundle());
+            ServiceManagerPlugin serviceManager = getFrameworkState().getServiceManagerPlugin();
+            List<ServiceState> serviceStates = new ArrayList<ServiceState>();
+            for (int i = 0; i < 3; i++) {
+                String[] clazzes = new String[] { clazz };
+                serviceStates.add(serviceManager.createServiceState(systemBundle, clazzes, new RunnableService(), rankingProps(i)));
+            }
+            serviceManager.registerServices(systemBundle, serviceStates);
+            assertEquals(3, context.getServiceReferences(clazz, null).length);
+            assertEquals(serviceStates.get(2).getReference(), context.getServiceReference(clazz));
+
+            serviceManager.unregisterServices(serviceStates);
+            assertNull(context.getServiceReferences(clazz, null));
+            for (ServiceState serviceState : serviceStates)
+                assertTrue(serviceState.isUnregistered());
+
+            // The events are delivered in list order
+            assertEquals(6, events.size());
+            for (int i = 0; i < 3; i++) {
+                assertEquals(ServiceEvent.REGISTERED, events.get(i).getType());
+                assertEquals(serviceStates.get(i), ServiceState.assertServiceState(events.get(i).getServiceReference()));
+                assertEquals(ServiceEvent.UNREGISTERING, events.get(i + 3).getType());
+                assertEquals(serviceStates.get(i), ServiceState.assertServiceState(events.get(i + 3).getServiceReference()));
+            }
+        } finally {
+            context.removeServiceListener(listener);
+        }
+    }
+
+    @Test
+    public void testServiceUsage() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        Bundle bundle = installBundle(getTestArchive("usage-bundle"));
+        ServiceRegistration sreg = context.registerService(clazz, new RunnableService(), null);
+        try {
+            bundle.start();
+            BundleContext bundleContext = bundle.getBundleContext();
+            ServiceReference sref = sreg.getReference();
+            ServiceState serviceState = ServiceState.assertServiceState(sref);
+            AbstractBundleState bundleState = AbstractBundleState.assertBundleState(bundle);
+
+            assertNotNull(bundleContext.getService(sref));
+            assertNotNull(bundleContext.getService(sref));
+            assertEquals(1, sref.getUsingBundles().length);
+            assertEquals(1, bundle.getServicesInUse().length);
+
+            assertTrue(bundleContext.ungetService(sref));
+            assertEquals(1, sref.getUsingBundles().length);
+            assertTrue(bundleContext.ungetService(sref));
+            assertFalse(bundleContext.ungetService(sref));
+
+            // The usage is dropped when the use count reaches zero
+            assertNull(sref.getUsingBundles());
+            assertNull(bundle.getServicesInUse());
+            assertNull(serviceState.getUsage(bundleState));
+            assertTrue(bundleState.getServicesInUseInternal().isEmpty());
+        } finally {
+            sreg.unregister();
+            if (bundle.getState() != Bundle.UNINSTALLED)
+                bundle.uninstall();
+        }
+    }
+
+    @Test
+    public void testServicesReleasedOnStop() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        final AtomicInteger getCount = new AtomicInteger();
+        final AtomicInteger ungetCount = new AtomicInteger();
+        ServiceFactory factory = new ServiceFactory() {
+            public Object getService(Bundle bundle, ServiceRegistration registration) {
+                getCount.incrementAndGet();
+                return new RunnableService();
+            }
+
+            public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
+                ungetCount.incrementAndGet();
+            }
+        };
+        Bundle bundle = installBundle(getTestArchive("stop-bundle"));
+        ServiceRegistration sreg = context.registerService(clazz, factory, null);
+        try {
+            ServiceReference sref = sreg.getReference();
+
+            // The outstanding calls to getService are released when the bundle stops
+            bundle.start();
+            assertNotNull(bundle.getBundleContext().getService(sref));
+            assertNotNull(bundle.getBundleContext().getService(sref));
+            assertEquals(1, getCount.get());
+            bundle.stop();
+            assertEquals(1, ungetCount.get());
+            assertNull(sref.getUsingBundles());
+            assertNull(bundle.getServicesInUse());
+
+            // The outstanding calls to getService are released when the bundle is uninstalled
+            bundle.start();
+            assertNotNull(bundle.getBundleContext().getService(sref));
+            assertEquals(2, getCount.get());
+            bundle.uninstall();
+            assertEquals(2, ungetCount.get());
+            assertNull(sref.getUsingBundles());
+        } finally {
+            sreg.unregister();
+            if (bundle.getState() != Bundle.UNINSTALLED)
+                bundle.uninstall();
+        }
+    }
+
+    @Test
+    public void testConcurrentServiceUsage() throws Exception {
+        final BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        ServiceRegistration sreg = context.registerService(clazz, new RunnableService(), null);
+        try {
+            final ServiceReference sref = sreg.getReference();
+            final AtomicInteger failures = new AtomicInteger();
+            Thread[] threads = new Thread[4];
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < 1000; j++) {
+                            if (context.getService(sref) == null || context.ungetService(sref) == false)
+                                failures.incrementAndGet();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+
+            assertEquals(0, failures.get());
+            assertNull(sref.getUsingBundles());
+            assertNull(ServiceState.assertServiceState(sref).getUsage(AbstractBundleState.assertBundleState(context.getBundle())));
+        } finally {
+            sreg.unregister();
+        }
+    }
+
+    @Test
+    public void testQueryCacheDisabled() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+        ServiceManagerPlugin serviceManager = getFrameworkState().getServiceManagerPlugin();
+
+        // The query cache is off by default
+        ServiceRegistration sreg = context.registerService(clazz, new RunnableService(), null);
+        try {
+            assertEquals(1, context.getServiceReferences(clazz, null).length);
+            assertEquals(1, context.getServiceReferences(clazz, null).length);
+            assertEquals(0, serviceManager.getQueryCacheHitCount());
+            assertEquals(0, serviceManager.getQueryCacheMissCount());
+        } finally {
+            sreg.unregister();
+        }
+    }
+
+    @Test
+    public void testQueryCache() throws Exception {
+        Framework framework = startQueryCacheFramework();
+        try {
+            BundleContext context = framework.getBundleContext();
+            String clazz = Runnable.class.getName();
+            ServiceManagerPlugin serviceManager = getServiceManager(framework);
+
+            ServiceRegistration sregA = context.registerService(clazz, new RunnableService(), null);
+            try {
+                // A repeated lookup is answered from the cache
+                assertEquals(1, context.getServiceReferences(clazz, null).length);
+                long hits = serviceManager.getQueryCacheHitCount();
+                assertEquals(1, context.getServiceReferences(clazz, null).length);
+                assertEquals(hits + 1, serviceManager.getQueryCacheHitCount());
+
+                // A new registration invalidates the cached result
+                ServiceRegistration sregB = context.registerService(clazz, new RunnableService(), null);
+                try {
+                    long misses = serviceManager.getQueryCacheMissCount();
+                    assertEquals(2, context.getServiceReferences(clazz, null).length);
+                    assertEquals(misses + 1, serviceManager.getQueryCacheMissCount());
+                } finally {
+                    sregB.unregister();
+                }
+                assertEquals(1, context.getServiceReferences(clazz, null).length);
+            } finally {
+                sregA.unregister();
+            }
+            assertNull(context.getServiceReferences(clazz, null));
+        } finally {
+            stopFramework(framework);
+        }
+    }
+
+    @Test
+    public void testQueryCacheDynamicImport() throws Exception {
+        Framework framework = startQueryCacheFramework();
+        try {
+            BundleContext context = framework.getBundleContext();
+            String clazz = Runnable.class.getName();
+            ServiceManagerPlugin serviceManager = getServiceManager(framework);
+
+            JavaArchive archive = getTestArchive("dynamic-bundle", "*");
+            Bundle bundle = context.installBundle(archive.getName(), toInputStream(archive));
+            ServiceRegistration sreg = context.registerService(clazz, new RunnableService(), null);
+            try {
+                bundle.start();
+                BundleContext bundleContext = bundle.getBundleContext();
+
+                // Assignability checks for a bundle with dynamic imports are not cached
+                long hits = serviceManager.getQueryCacheHitCount();
+                assertEquals(1, bundleContext.getServiceReferences(clazz, null).length);
+                assertEquals(1, bundleContext.getServiceReferences(clazz, null).length);
+                assertEquals(hits, serviceManager.getQueryCacheHitCount());
+
+                // Lookups without assignability checks are still cached
+                assertEquals(1, bundleContext.getAllServiceReferences(clazz, null).length);
+                assertEquals(1, bundleContext.getAllServiceReferences(clazz, null).length);
+                assertEquals(hits + 1, serviceManager.getQueryCacheHitCount());
+            } finally {
+                sreg.unregister();
+                bundle.uninstall();
+            }
+        } finally {
+            stopFramework(framework);
+        }
+    }
+
+    @Test
+    public void testConcurrentServiceFactory() throws Exception {
+        final BundleContext context = getSystemContext();
+        String clazz = Runnable.class.getName();
+
+        final AtomicInteger getCount = new AtomicInteger();
+        final AtomicInteger ungetCount = new AtomicInteger();
+        ServiceFactory factory = new ServiceFactory() {
+            public Object getService(Bundle bundle, ServiceRegistration registration) {
+                getCount.incrementAndGet();
+                return new RunnableService();
+            }
+
+            public void ungetService(Bundle bundle, ServiceRegistration registration, Object service) {
+                ungetCount.incrementAndGet();
+            }
+        };
+        ServiceRegistration sreg = context.registerService(clazz, factory, null);
+        try {
+            final ServiceReference sref = sreg.getReference();
+
+            // Concurrent first calls share the one value that the factory created for the bundle
+            final CountDownLatch startLatch = new CountDownLatch(1);
+            final Object[] values = new Object[4];
+            Thread[] threads = new Thread[values.length];
+            for (int i = 0; i < threads.length; i++) {
+                final int index = i;
+                threads[i] = new Thread() {
+                    public void run() {
+                        try {
+                            startLatch.await();
+                            values[index] = context.getService(sref);
+                        } catch (InterruptedException ex) {
+                            // ignore
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            startLatch.countDown();
+            for (Thread thread : threads)
+                thread.join();
+
+            assertEquals(1, getCount.get());
+            assertNotNull(values[0]);
+            for (Object value : values)
+                assertSame(values[0], value);
+
+            // The factory releases the value when the use count drops to zero
+            for (int i = 0; i < values.length - 1; i++)
+                assertTrue(context.ungetService(sref));
+            assertEquals(0, ungetCount.get());
+            assertTrue(context.ungetService(sref));
+            assertEquals(1, ungetCount.get());
+            assertNull(sref.getUsingBundles());
+
+            // Every value that the factory creates under contention is released again
+            final AtomicInteger failures = new AtomicInteger();
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread() {
+                    public void run() {
+                        for (int j = 0; j < 1000; j++) {
+                            if (context.getService(sref) == null || context.ungetService(sref) == false)
+                                failures.incrementAndGet();
+                        }
+                    }
+                };
+                threads[i].start();
+            }
+            for (Thread thread : threads)
+                thread.join();
+
+            assertEquals(0, failures.get());
+            assertEquals(getCount.get(), ungetCount.get());
+            assertNull(sref.getUsingBundles());
+        } finally {
+            sreg.unregister();
+        }
+    }
+
+    @Test
+    public void testXServiceState() throws Exception {
+        BundleContext context = getSystemContext();
+        String clazz = RunnableService.class.getName();
+
+        final Runnable value = new RunnableService();
+        Service<Runnable> service = new AbstractService<Runnable>() {
+            public Runnable getValue() {
+                return value;
+            }
+        };
+        ServiceName serviceName = ServiceState.createXServiceName(clazz);
+        ServiceController<Runnable> controller = getBundleManager().getServiceTarget().addService(serviceName, service).install();
+        try {
+            new FutureServiceValue<Runnable>(controller).get(5, TimeUnit.SECONDS);
+
+            // The service id is stable across lookups
+            ServiceReference sref = context.getServiceReference(clazz);
+            assertNotNull(sref);
+            Object serviceId = sref.getProperty(Constants.SERVICE_ID);
+            assertEquals(serviceId, context.getServiceReference(clazz).getProperty(Constants.SERVICE_ID));
+            assertEquals(serviceId, context.getServiceReferences(clazz, null)[0].getProperty(Constants.SERVICE_ID));
+            assertEquals(value, context.getService(sref));
+            assertTrue(context.ungetService(sref));
+
+            // The state is dropped when the controller is removed, without another lookup
+            ServiceState serviceState = ServiceState.assertServiceState(sref);
+            controller.setMode(Mode.REMOVE);
+            for (int i = 0; i < 50 && serviceState.isUnregistered() == false; i++)
+                Thread.sleep(100);
+            assertTrue(serviceState.isUnregistered());
+            assertNull(context.getServiceReference(clazz));
+        } finally {
+            if (controller.getState() != State.REMOVED)
+                controller.setMode(Mode.REMOVE);
+        }
+    }
+
+    // A separate framework, so that the other tests run with the default configuration
+    private Framework startQueryCacheFramework() throws Exception {
+        Map<String, String> props = new HashMap<String, String>();
+        props.put("org.osgi.framework.storage", "target/osgi-store-query-cache");
+        props.put("org.osgi.framework.storage.clean", "onFirstInit");
+        props.put(org.jboss.osgi.framework.Constants.PROPERTY_SERVICE_QUERY_CACHE_SIZE, "100");
+        FrameworkFactory factory = ServiceLoader.loadService(FrameworkFactory.class);
+        Framework framework = factory.newFramework(props);
+        framework.start();
+        return framework;
+    }
+
+    private void stopFramework(Framework framework) throws Exception {
+        framework.stop();
+        framework.waitForStop(2000);
+    }
+
+    private ServiceManagerPlugin getServiceManager(Framework framework) {
+        BundleManager bundleManager = AbstractBundleState.assertBundleState(framework.getBundleContext().getBundle()).getBundleManager();
+        return bundleManager.getFrameworkState().getServiceManagerPlugin();
+    }
+
+    private JavaArchive getTestArchive(String name) {
+        return getTestArchive(name, null);
+    }
+
+    private JavaArchive getTestArchive(String name, final String dynamicImport) {
+        final JavaArchive archive = ShrinkWrap.create(JavaArchive.class, name);
+        archive.setManifest(new Asset() {
+            public InputStream openStream() {
+                OSGiManifestBuilder builder = OSGiManifestBuilder.newInstance();
+                builder.addBundleManifestVersion(2);
+                builder.addBundleSymbolicName(archive.getName());
+                if (dynamicImport != null)
+                    builder.addDynamicImportPackages(dynamicImport);
+                return builder.openStream();
+            }
+        });
+        return archive;
+    }
+
+    private Hashtable<String, Object> rankingProps(int ranking) {
+        Hashtable<String, Object> props = new Hashtable<String, Object>();
+        props.put(Constants.SERVICE_RANKING, Integer.valueOf(ranking));
+        return props;
+    }
+
+    static class PropertiesThread extends Thread {
+
+        private final ServiceRegistration sreg;
+        private final CountDownLatch startLatch;
+        private final String[] pids;
+
+        PropertiesThread(ServiceRegistration sreg, CountDownLatch startLatch, String[] pids) {
+            this.sreg = sreg;
+            this.startLatch = startLatch;
+            this.pids = pids;
+        }
+
+        public void run() {
+            Hashtable<String, Object> props = new Hashtable<String, Object>();
+            props.put(Constants.SERVICE_PID, pids);
+            try {
+                if (startLatch != null)
+                    startLatch.await();
+                sreg.setProperties(props);
+            } catch (IllegalStateException ex) {
+                // unregistered
+            } catch (InterruptedException ex) {
+                // ignore
+            }
+        }
+    }
+
+    static class RunnableService implements Runnable {
+        public void run() {
+        }
+    }
+}
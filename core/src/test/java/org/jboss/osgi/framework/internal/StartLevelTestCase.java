@@ -21,6 +21,7 @@
  */
 package org.jboss.osgi.framework.internal;
 
+import org.jboss.osgi.framework.BatchBundleListener;
 import org.jboss.osgi.testing.OSGiFrameworkTest;
 import org.jboss.osgi.spi.OSGiManifestBuilder;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
@@ -29,6 +30,7 @@ import org.jboss.shrinkwrap.api.spec.JavaArchive;
 import org.junit.Test;
 import org.osgi.framework.Bundle;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.BundleEvent;
 import org.osgi.framework.BundleException;
 import org.osgi.framework.ServiceReference;
 import org.osgi.service.startlevel.StartLevel;
@@ -36,9 +38,12 @@ import org.osgi.service.startlevel.StartLevel;
 import java.io.InputStream;
 import java.util.List;
 import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
 /**
@@ -141,6 +146,51 @@ public class StartLevelTestCase extends OSGiFrameworkTest {
         }
     }
 
+    @Test
+    public void testBatchBundleListener() throws Exception {
+        StartLevel startLevel = getStartLevel();
+        int orgStartLevel = startLevel.getStartLevel();
+        int orgInitialStartlevel = startLevel.getInitialBundleStartLevel();
+        final List<List<BundleEvent>> batches = new CopyOnWriteArrayList<List<BundleEvent>>();
+        final CountDownLatch latch = new CountDownLatch(1);
+        BatchBundleListener listener = new BatchBundleListener() {
+
+            public void bundleChanged(BundleEvent event) {
+            }
+
+            public void bundlesChanged(List<BundleEvent> events) {
+                batches.add(events);
+                latch.countDown();
+            }
+        };
+        BundleContext context = getFramework().getBundleContext();
+        context.addBundleListener(listener);
+        try {
+            setTestExecutor(startLevel);
+            startLevel.setInitialBundleStartLevel(5);
+
+            Bundle bundle = installBundle(createTestBundle("bundle4"));
+            try {
+                bundle.start();
+                startLevel.setStartLevel(5);
+                assertBundleState(Bundle.ACTIVE, bundle.getState());
+
+                // The events of the start level change are delivered as one batch
+                assertTrue("Batch delivered", latch.await(10, TimeUnit.SECONDS));
+                assertEquals(1, batches.size());
+                List<BundleEvent> events = batches.get(0);
+                assertEquals(BundleEvent.STARTED, events.get(events.size() - 1).getType());
+                assertEquals(bundle, events.get(events.size() - 1).getBundle());
+            } finally {
+                bundle.uninstall();
+            }
+        } finally {
+            context.removeBundleListener(listener);
+            startLevel.setInitialBundleStartLevel(orgInitialStartlevel);
+            startLevel.setStartLevel(orgStartLevel);
+        }
+    }
+
     @Test
     public void getFrameworkStartLevel() throws Exception {
         BundleContext sc = getFramework().getBundleContext();
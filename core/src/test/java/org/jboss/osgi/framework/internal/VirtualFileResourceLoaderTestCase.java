@@ -28,6 +28,7 @@ import org.jboss.modules.ResourceLoader;
 import org.jboss.osgi.framework.util.VirtualFileResourceLoader;
 import org.jboss.osgi.spi.OSGiManifestBuilder;
 import org.jboss.osgi.testing.OSGiTestHelper;
+import org.jboss.osgi.vfs.VFSUtils;
 import org.jboss.osgi.vfs.VirtualFile;
 import org.jboss.shrinkwrap.api.ShrinkWrap;
 import org.jboss.shrinkwrap.api.asset.Asset;
@@ -38,11 +39,14 @@ import org.junit.AfterClass;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.io.ByteArrayOutputStream;
 import java.io.InputStream;
 import java.util.Collection;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -85,6 +89,19 @@ public class VirtualFileResourceLoaderTestCase {
         fileName = fileName.replace('.', '/') + ".class";
         ClassSpec result = loader.getClassSpec(fileName);
         assertNotNull("ClassSpec not null", result);
+
+        InputStream input = getClass().getClassLoader().getResourceAsStream(fileName);
+        try {
+            ByteArrayOutputStream output = new ByteArrayOutputStream();
+            VFSUtils.copyStream(input, output);
+            assertArrayEquals(output.toByteArray(), result.getBytes());
+        } finally {
+            input.close();
+        }
+
+        // Classes from the same root share the code source
+        ClassSpec other = loader.getClassSpec(SimpleService.class.getName().replace('.', '/') + ".class");
+        assertSame(result.getCodeSource(), other.getCodeSource());
     }
 
     @Test
@@ -92,6 +109,7 @@ public class VirtualFileResourceLoaderTestCase {
         ResourceLoader loader = new VirtualFileResourceLoader(rootFile);
         PackageSpec result = loader.getPackageSpec(SimpleActivator.class.getPackage().getName());
         assertNotNull("PackageSpec not null", result);
+        assertSame(result, loader.getPackageSpec(SimpleActivator.class.getPackage().getName()));
     }
 
     @Test